@@ -0,0 +1,118 @@
+import java.util.Arrays;
+
+// Feature matrix quantized column by column into at most maxBins quantile bins,
+// stored as one byte per value. Bin b of feature f holds values in (cuts[f][b - 1], cuts[f][b]],
+// so a split "bin <= b" is the same as "x <= cuts[f][b]" on the raw values.
+public class BinnedData {
+    public static final int MAX_BINS = 256;
+
+    final int nRows;
+    final int maxBins;
+    final byte[][] bins;
+    final double[][] cuts;
+
+    public BinnedData(double[][] X, int maxBins) {
+        this(Dataset.of(X), maxBins);
+    }
+
+    // Reads one column at a time into a reused buffer, so at most two columns of doubles are on
+    // the heap: the column being binned and the sorted copy its quantile cuts come from
+    public BinnedData(Dataset data, int maxBins) {
+        if (maxBins < 2 || maxBins > MAX_BINS) {
+            throw new IllegalArgumentException("maxBins must be between 2 and " + MAX_BINS + ": " + maxBins);
+        }
+        this.nRows = data.nRows();
+        this.maxBins = maxBins;
+        int nFeatures = data.nFeatures();
+        this.bins = new byte[nFeatures][];
+        this.cuts = new double[nFeatures][];
+
+        double[] column = new double[nRows];
+        for (int f = 0; f < nFeatures; f++) {
+            data.column(f, column);
+            addColumn(f, column);
+        }
+    }
+
+    private void addColumn(int f, double[] column) {
+        double[] sorted = column.clone();
+        Arrays.sort(sorted);
+        cuts[f] = quantileCuts(sorted, maxBins);
+
+        byte[] b = new byte[column.length];
+        for (int i = 0; i < column.length; i++) {
+            b[i] = (byte) binOf(cuts[f], column[i]);
+        }
+        bins[f] = b;
+    }
+
+    static double[] quantileCuts(double[] sorted, int maxBins) {
+        int n = sorted.length;
+        double[] distinct = new double[n];
+        int nDistinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (nDistinct == 0 || sorted[i] != distinct[nDistinct - 1]) {
+                distinct[nDistinct++] = sorted[i];
+            }
+        }
+        if (nDistinct <= maxBins) {
+            return Arrays.copyOf(distinct, nDistinct);
+        }
+
+        double[] cuts = new double[maxBins];
+        int nCuts = 0;
+        for (int k = 1; k < maxBins; k++) {
+            double cut = sorted[(int) ((long) k * n / maxBins) - 1];
+            if (nCuts == 0 || cut > cuts[nCuts - 1]) {
+                cuts[nCuts++] = cut;
+            }
+        }
+        if (sorted[n - 1] > cuts[nCuts - 1]) {
+            cuts[nCuts++] = sorted[n - 1];
+        }
+        return Arrays.copyOf(cuts, nCuts);
+    }
+
+    static int binOf(double[] cuts, double x) {
+        int pos = Arrays.binarySearch(cuts, x);
+        if (pos < 0) pos = -pos - 1;
+        return Math.min(pos, cuts.length - 1);
+    }
+
+    // The rows with every value replaced by its bin's upper cut. A split "x <= cuts[f][b]" sends
+    // each such row the same way as its raw values, so trees fitted here can score it.
+    Dataset asDataset() {
+        return new Dataset() {
+            @Override
+            public int nRows() {
+                return nRows;
+            }
+
+            @Override
+            public int nFeatures() {
+                return bins.length;
+            }
+
+            @Override
+            public double get(int row, int feature) {
+                return cuts[feature][bin(feature, row)];
+            }
+        };
+    }
+
+    int bin(int feature, int row) {
+        return bins[feature][row] & 0xFF;
+    }
+
+    int nBins(int feature) {
+        return cuts[feature].length;
+    }
+
+    public int nRows() {
+        return nRows;
+    }
+
+    public int nFeatures() {
+        return bins.length;
+    }
+}
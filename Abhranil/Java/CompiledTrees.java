@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+// One or more trained trees packed into parallel primitive arrays in preorder.
+// An internal node i tests x[feature[i]] <= threshold[i]; its left child is i + 1
+// and its right child is next[i]. A leaf has feature[i] == -1 and next[i] holds
+// its class index into classes. Trees loaded from a model file read the same
+// arrays through views of the mapping instead (see read).
+class CompiledTrees {
+    final int[] roots;
+    final int[] feature;
+    final double[] threshold;
+    final int[] next;
+    final int[] classes;
+    // Width of the rows the trees were trained on, or 0 if not recorded
+    int nFeatures;
+
+    CompiledTrees(int[] roots, int[] feature, double[] threshold, int[] next, int[] classes) {
+        this.roots = roots;
+        this.feature = feature;
+        this.threshold = threshold;
+        this.next = next;
+        this.classes = classes;
+    }
+
+    // Concatenates single trees trained against the same classes
+    static CompiledTrees concat(List<CompiledTrees> trees, int[] classes) {
+        int size = 0;
+        for (CompiledTrees tree : trees) {
+            size += tree.feature.length;
+        }
+        int[] roots = new int[trees.size()];
+        int[] feature = new int[size];
+        double[] threshold = new double[size];
+        int[] next = new int[size];
+
+        int offset = 0;
+        for (int t = 0; t < trees.size(); t++) {
+            CompiledTrees tree = trees.get(t);
+            int n = tree.feature.length;
+            roots[t] = offset;
+            System.arraycopy(tree.feature, 0, feature, offset, n);
+            System.arraycopy(tree.threshold, 0, threshold, offset, n);
+            for (int i = 0; i < n; i++) {
+                next[offset + i] = tree.feature[i] < 0 ? tree.next[i] : tree.next[i] + offset;
+            }
+            offset += n;
+        }
+        return new CompiledTrees(roots, feature, threshold, next, classes);
+    }
+
+    int nTrees() {
+        return roots.length;
+    }
+
+    int nNodes() {
+        return feature.length;
+    }
+
+    // Payload layout: {int nTrees, int nNodes, int nClasses, int nFeatures}, classes, roots,
+    // feature and next as ints, then threshold as doubles
+    long payloadBytes() {
+        return 16 + ModelFile.intBytes(classes.length) + ModelFile.intBytes(roots.length)
+                + 2 * ModelFile.intBytes(nNodes()) + (long) nNodes() * Double.BYTES;
+    }
+
+    void write(ByteBuffer buffer) {
+        buffer.putInt(roots.length).putInt(feature.length).putInt(classes.length).putInt(nFeatures);
+        ModelFile.putInts(buffer, classes);
+        ModelFile.putInts(buffer, roots);
+        ModelFile.putInts(buffer, feature);
+        ModelFile.putInts(buffer, next);
+        ModelFile.putDoubles(buffer, threshold);
+    }
+
+    void save(Path path, int type) throws IOException {
+        MappedByteBuffer buffer = ModelFile.create(path, type, payloadBytes());
+        write(buffer);
+        buffer.force();
+    }
+
+    static CompiledTrees load(Path path, int type) throws IOException {
+        return read(ModelFile.open(path, type));
+    }
+
+    // Trees read straight from a mapped model file; nothing but classes and roots is copied
+    static CompiledTrees read(ByteBuffer buffer) {
+        int nTrees = buffer.getInt();
+        int nNodes = buffer.getInt();
+        int nClasses = buffer.getInt();
+        int nFeatures = buffer.getInt();
+        int[] classes = ModelFile.getInts(buffer, nClasses);
+        int[] roots = ModelFile.getInts(buffer, nTrees);
+        IntBuffer feature = ModelFile.intView(buffer, nNodes);
+        IntBuffer next = ModelFile.intView(buffer, nNodes);
+        DoubleBuffer threshold = ModelFile.doubleView(buffer, nNodes);
+        Mapped mapped = new Mapped(roots, feature, threshold, next, classes);
+        mapped.nFeatures = nFeatures;
+        return mapped;
+    }
+
+    // Returns the class index of the leaf x reaches in the given tree
+    int leafClass(int tree, double[] x) {
+        int i = roots[tree];
+        while (feature[i] >= 0) {
+            i = x[feature[i]] <= threshold[i] ? i + 1 : next[i];
+        }
+        return next[i];
+    }
+
+    // Adds each tree's vote for rows [start, end) of X into tally[(row - start) * nClasses + class],
+    // walking the block tree by tree
+    void vote(double[][] X, int start, int end, int[] tally) {
+        int nClasses = classes.length;
+        for (int tree = 0; tree < roots.length; tree++) {
+            for (int r = start; r < end; r++) {
+                tally[(r - start) * nClasses + leafClass(tree, X[r])]++;
+            }
+        }
+    }
+
+    private static final class Mapped extends CompiledTrees {
+        private final IntBuffer mappedFeature;
+        private final DoubleBuffer mappedThreshold;
+        private final IntBuffer mappedNext;
+
+        Mapped(int[] roots, IntBuffer feature, DoubleBuffer threshold, IntBuffer next, int[] classes) {
+            super(roots, null, null, null, classes);
+            this.mappedFeature = feature;
+            this.mappedThreshold = threshold;
+            this.mappedNext = next;
+        }
+
+        @Override
+        int nNodes() {
+            return mappedFeature.limit();
+        }
+
+        @Override
+        int leafClass(int tree, double[] x) {
+            int i = roots[tree];
+            int f;
+            while ((f = mappedFeature.get(i)) >= 0) {
+                i = x[f] <= mappedThreshold.get(i) ? i + 1 : mappedNext.get(i);
+            }
+            return mappedNext.get(i);
+        }
+
+        @Override
+        void write(ByteBuffer buffer) {
+            buffer.putInt(roots.length).putInt(nNodes()).putInt(classes.length).putInt(nFeatures);
+            ModelFile.putInts(buffer, classes);
+            ModelFile.putInts(buffer, roots);
+            int[] ints = new int[nNodes()];
+            mappedFeature.duplicate().get(ints);
+            ModelFile.putInts(buffer, ints);
+            mappedNext.duplicate().get(ints);
+            ModelFile.putInts(buffer, ints);
+            double[] doubles = new double[nNodes()];
+            mappedThreshold.duplicate().get(doubles);
+            ModelFile.putDoubles(buffer, doubles);
+        }
+    }
+}
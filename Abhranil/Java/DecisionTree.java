@@ -1,12 +1,20 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
+// Training-time tree node; value is a class index. Fitted trees are packed into CompiledTrees.
 class Node {
     Integer feature;
     Double threshold;
     Node left;
     Node right;
     Integer value;
+    // Rows at the node times the entropy its split removes
+    double impurityDecrease;
 
     Node(Integer feature, Double threshold, Node left, Node right, Integer value) {
         this.feature = feature;
@@ -25,7 +33,27 @@ public class DecisionTree {
     private int minSamplesSplit;
     private int maxDepth;
     private Integer nFeatures;
-    private Node root;
+    private MaxFeatures maxFeatures;
+    private boolean extraTrees;
+    private int maxBins;
+    private Long seed;
+    private int parallelNodeSize;
+    private CompiledTrees compiled;
+    private TrainingListener listener;
+    private int depth;
+    private double[] importances;
+    // Candidate thresholds scored during the last fit; subtrees may add to it concurrently
+    private final LongAdder splitEvaluations = new LongAdder();
+
+    // Training state, only alive during fit
+    private double[][] X;
+    private BinnedData data;
+    private int[] y;
+    private int[] classes;
+    private int[] samples;
+    private int[] order;
+    private double[] keys;
+    private int featuresPerSplit;
 
     public DecisionTree(int minSamplesSplit, int maxDepth, Integer nFeatures) {
         this.minSamplesSplit = minSamplesSplit;
@@ -33,163 +61,719 @@ public class DecisionTree {
         this.nFeatures = nFeatures;
     }
 
+    // maxBins > 0 trains on quantile-binned features with histogram split search
+    public DecisionTree(int minSamplesSplit, int maxDepth, Integer nFeatures, int maxBins) {
+        this(minSamplesSplit, maxDepth, nFeatures);
+        this.maxBins = maxBins;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    // Candidate features drawn per split; overrides the nFeatures constructor argument
+    public void setMaxFeatures(MaxFeatures maxFeatures) {
+        this.maxFeatures = maxFeatures;
+    }
+
+    // Extremely randomized trees: each candidate feature gets one threshold drawn uniformly
+    // between its minimum and maximum at the node, instead of a search over every value
+    public void setExtraTrees(boolean extraTrees) {
+        this.extraTrees = extraTrees;
+    }
+
+    // Nodes with at least this many rows grow their two subtrees concurrently; 0 disables
+    public void setParallelNodeSize(int parallelNodeSize) {
+        this.parallelNodeSize = parallelNodeSize;
+    }
+
+    public void setListener(TrainingListener listener) {
+        this.listener = listener;
+    }
+
     public void fit(double[][] X, int[] y) {
-        int nFeatures = X[0].length;
-        this.nFeatures = (this.nFeatures == null) ? nFeatures : Math.min(nFeatures, this.nFeatures);
-        this.root = growTree(X, y, 0);
+        if (maxBins > 0) {
+            fit(new BinnedData(X, maxBins), y);
+            return;
+        }
+        int[] classes = classesOf(y);
+        long start = System.nanoTime();
+        fit(X, encodeLabels(y, classes), classes, allRows(X.length));
+        notifyBuilt(start);
+    }
+
+    // Trains in binned mode (maxBins, or 255 if unset) reading features column by column
+    public void fit(Dataset data, int[] y) {
+        fit(new BinnedData(data, maxBins > 0 ? maxBins : 255), y);
     }
 
-    private Node growTree(double[][] X, int[] y, int depth) {
-        int nLabels = (int) Arrays.stream(y).distinct().count();
+    public void fit(BinnedData data, int[] y) {
+        int[] classes = classesOf(y);
+        long start = System.nanoTime();
+        fit(data, encodeLabels(y, classes), classes, allRows(data.nRows()));
+        notifyBuilt(start);
+    }
 
-        if (depth >= maxDepth || nLabels == 1 || X.length < minSamplesSplit) {
-            int leafValue = mostCommonLabel(y);
-            return new Node(null, null, null, null, leafValue);
+    private void notifyBuilt(long start) {
+        if (listener != null) {
+            listener.treeBuilt(0, depth, compiled.nNodes(), splitEvaluations(), System.nanoTime() - start);
         }
+    }
 
-        int[] featIdxs = randomSubset(nFeatures, X[0].length);
+    // y holds class indices into classes; samples lists the rows to train on (repeats allowed)
+    void fit(double[][] X, int[] y, int[] classes, int[] samples) {
+        this.featuresPerSplit = featuresPerSplit(X[0].length);
+        this.X = X;
+        this.y = y;
+        this.classes = classes;
+        this.samples = samples;
+        this.order = new int[samples.length];
+        this.keys = new double[samples.length];
+        SplittableRandom rand = newRandom();
+        splitEvaluations.reset();
+        try {
+            setTree(invoke(() -> growTree(0, samples.length, 0, rand)), classes, X[0].length);
+        } finally {
+            this.X = null;
+            this.y = null;
+            this.samples = null;
+            this.order = null;
+            this.keys = null;
+        }
+    }
 
-        double[] bestSplit = bestSplit(X, y, featIdxs);
-        int bestFeature = (int) bestSplit[0];
-        double bestThresh = bestSplit[1];
+    void fit(BinnedData data, int[] y, int[] classes, int[] samples) {
+        this.featuresPerSplit = featuresPerSplit(data.nFeatures());
+        this.data = data;
+        this.y = y;
+        this.classes = classes;
+        this.samples = samples;
+        SplittableRandom rand = newRandom();
+        splitEvaluations.reset();
+        try {
+            setTree(invoke(() -> growBinned(0, samples.length, 0, histogram(0, samples.length), rand)), classes, data.nFeatures());
+        } finally {
+            this.data = null;
+            this.y = null;
+            this.samples = null;
+        }
+    }
+
+    private int featuresPerSplit(int total) {
+        if (maxFeatures != null) return Math.max(1, Math.min(total, maxFeatures.resolve(total)));
+        return nFeatures == null ? total : Math.min(total, nFeatures);
+    }
+
+    private void setTree(Node root, int[] classes, int totalFeatures) {
+        this.depth = depthOf(root);
+        this.compiled = compile(root, classes);
+        this.importances = new double[totalFeatures];
+        addImpurityDecrease(root, importances);
+        double total = 0;
+        for (double importance : importances) {
+            total += importance;
+        }
+        if (total > 0) {
+            for (int f = 0; f < totalFeatures; f++) {
+                importances[f] /= total;
+            }
+        }
+    }
+
+    private static void addImpurityDecrease(Node node, double[] importances) {
+        if (node.isLeafNode()) return;
+        importances[node.feature] += node.impurityDecrease;
+        addImpurityDecrease(node.left, importances);
+        addImpurityDecrease(node.right, importances);
+    }
+
+    private SplittableRandom newRandom() {
+        return seed == null ? new SplittableRandom() : new SplittableRandom(seed);
+    }
+
+    private Node invoke(Supplier<Node> grow) {
+        if (parallelNodeSize > 0 && !ForkJoinTask.inForkJoinPool()) {
+            return ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(grow::get));
+        }
+        return grow.get();
+    }
+
+    // Every node splits its own random stream for its children, so the tree does not
+    // depend on which thread grows which subtree
+    private Node[] growChildren(int size, Supplier<Node> left, Supplier<Node> right) {
+        if (parallelNodeSize > 0 && size >= parallelNodeSize && ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask<Node> rightTask = ForkJoinTask.adapt(right::get).fork();
+            return new Node[]{left.get(), rightTask.join()};
+        }
+        return new Node[]{left.get(), right.get()};
+    }
 
-        int[][] splitIndices = split(X, bestFeature, bestThresh);
-        int[] leftIdxs = splitIndices[0];
-        int[] rightIdxs = splitIndices[1];
+    private static int[] allRows(int n) {
+        int[] rows = new int[n];
+        for (int i = 0; i < n; i++) {
+            rows[i] = i;
+        }
+        return rows;
+    }
+
+    private Node growTree(int start, int end, int depth, SplittableRandom rand) {
+        int[] counts = classCounts(start, end);
+        int nLabels = 0;
+        for (int count : counts) {
+            if (count > 0) nLabels++;
+        }
+
+        if (depth >= maxDepth || nLabels == 1 || end - start < minSamplesSplit) {
+            return leaf(counts);
+        }
+
+        int[] featIdxs = randomSubset(featuresPerSplit, X[0].length, rand);
 
-        double[][] XLeft = getSubMatrix(X, leftIdxs);
-        int[] yLeft = getSubArray(y, leftIdxs);
+        double[] bestSplit = extraTrees ? randomSplit(start, end, counts, featIdxs, rand) : bestSplit(start, end, counts, featIdxs);
+        if (bestSplit == null) {
+            return leaf(counts);
+        }
+        int bestFeature = (int) bestSplit[0];
+        double bestThresh = bestSplit[1];
+        double bestGain = bestSplit[2];
 
-        double[][] XRight = getSubMatrix(X, rightIdxs);
-        int[] yRight = getSubArray(y, rightIdxs);
+        int mid = partition(start, end, bestFeature, bestThresh);
 
-        Node left = growTree(XLeft, yLeft, depth + 1);
-        Node right = growTree(XRight, yRight, depth + 1);
+        SplittableRandom leftRand = rand.split();
+        SplittableRandom rightRand = rand.split();
+        Node[] children = growChildren(end - start,
+                () -> growTree(start, mid, depth + 1, leftRand),
+                () -> growTree(mid, end, depth + 1, rightRand));
 
-        return new Node(bestFeature, bestThresh, left, right, null);
+        return split(bestFeature, bestThresh, bestGain * (end - start), children);
     }
 
-    private double[] bestSplit(double[][] X, int[] y, int[] featIdxs) {
+    // Sorts the node's rows by each candidate feature and sweeps once, moving rows
+    // from the right to the left class counts; returns {feature, threshold, gain}, or null if
+    // no feature separates the rows.
+    // Uses only order[start, end) and keys[start, end), so sibling subtrees can run concurrently.
+    private double[] bestSplit(int start, int end, int[] counts, int[] featIdxs) {
+        int n = end - start;
+        double parentEntropy = entropy(counts, n);
+        int[] leftCounts = new int[counts.length];
+        int[] rightCounts = new int[counts.length];
         double bestGain = -1;
         int splitIdx = -1;
         double splitThresh = -1;
+        long evaluations = 0;
 
         for (int featIdx : featIdxs) {
-            double[] XColumn = getColumn(X, featIdx);
-            double[] thresholds = Arrays.stream(XColumn).distinct().toArray();
+            for (int i = start; i < end; i++) {
+                int row = samples[i];
+                order[i] = row;
+                keys[i] = X[row][featIdx];
+            }
+            sort(keys, order, start, end - 1);
+            if (keys[start] == keys[end - 1]) continue;
+
+            Arrays.fill(leftCounts, 0);
+            System.arraycopy(counts, 0, rightCounts, 0, counts.length);
+
+            for (int i = start; i < end - 1; i++) {
+                int label = y[order[i]];
+                leftCounts[label]++;
+                rightCounts[label]--;
+                if (keys[i] == keys[i + 1]) continue;
 
-            for (double thr : thresholds) {
-                double gain = informationGain(y, XColumn, thr);
+                int nL = i + 1 - start;
+                int nR = n - nL;
+                evaluations++;
+                double childEntropy = ((double) nL / n) * entropy(leftCounts, nL) + ((double) nR / n) * entropy(rightCounts, nR);
+                double gain = parentEntropy - childEntropy;
 
                 if (gain > bestGain) {
                     bestGain = gain;
                     splitIdx = featIdx;
-                    splitThresh = thr;
+                    splitThresh = keys[i];
+                }
+            }
+        }
+
+        splitEvaluations.add(evaluations);
+        return splitIdx < 0 ? null : new double[]{splitIdx, splitThresh, bestGain};
+    }
+
+    // ExtraTrees split: one uniform threshold in [min, max) per feature, scored with a single
+    // pass over the node's rows and no sort
+    private double[] randomSplit(int start, int end, int[] counts, int[] featIdxs, SplittableRandom rand) {
+        int n = end - start;
+        double parentEntropy = entropy(counts, n);
+        int[] leftCounts = new int[counts.length];
+        int[] rightCounts = new int[counts.length];
+        double bestGain = -1;
+        int splitIdx = -1;
+        double splitThresh = -1;
+
+        for (int featIdx : featIdxs) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = start; i < end; i++) {
+                double value = X[samples[i]][featIdx];
+                if (value < min) min = value;
+                if (value > max) max = value;
+            }
+            if (!(min < max)) continue;
+            double thresh = min + rand.nextDouble() * (max - min);
+            if (thresh >= max) thresh = min;
+
+            Arrays.fill(leftCounts, 0);
+            int nL = 0;
+            for (int i = start; i < end; i++) {
+                int row = samples[i];
+                if (X[row][featIdx] <= thresh) {
+                    leftCounts[y[row]]++;
+                    nL++;
                 }
             }
+            for (int c = 0; c < counts.length; c++) {
+                rightCounts[c] = counts[c] - leftCounts[c];
+            }
+            int nR = n - nL;
+            double childEntropy = ((double) nL / n) * entropy(leftCounts, nL) + ((double) nR / n) * entropy(rightCounts, nR);
+            double gain = parentEntropy - childEntropy;
+            if (gain > bestGain) {
+                bestGain = gain;
+                splitIdx = featIdx;
+                splitThresh = thresh;
+            }
         }
 
-        return new double[]{splitIdx, splitThresh};
+        splitEvaluations.add(featIdxs.length);
+        return splitIdx < 0 ? null : new double[]{splitIdx, splitThresh, bestGain};
+    }
+
+    // Reorders samples[start, end) so rows going left come first; returns the boundary
+    private int partition(int start, int end, int splitFeature, double splitThresh) {
+        int i = start;
+        int j = end - 1;
+        while (i <= j) {
+            if (X[samples[i]][splitFeature] <= splitThresh) {
+                i++;
+            } else {
+                int tmp = samples[i];
+                samples[i] = samples[j];
+                samples[j] = tmp;
+                j--;
+            }
+        }
+        return i;
     }
 
-    private double informationGain(int[] y, double[] XColumn, double threshold) {
-        double parentEntropy = entropy(y);
+    // hist holds per feature, bin and class counts for the node, or null when the node must be a leaf
+    private Node growBinned(int start, int end, int depth, int[] hist, SplittableRandom rand) {
+        int[] counts = hist == null ? classCounts(start, end) : histogramCounts(hist);
+        int nLabels = 0;
+        for (int count : counts) {
+            if (count > 0) nLabels++;
+        }
+
+        if (hist == null || depth >= maxDepth || nLabels == 1 || end - start < minSamplesSplit) {
+            return leaf(counts);
+        }
 
-        int[][] splitIndices = split(XColumn, threshold);
-        int[] leftIdxs = splitIndices[0];
-        int[] rightIdxs = splitIndices[1];
+        int[] featIdxs = randomSubset(featuresPerSplit, data.nFeatures(), rand);
 
-        if (leftIdxs.length == 0 || rightIdxs.length == 0) {
-            return 0;
+        double[] bestSplit = extraTrees
+                ? randomBinnedSplit(end - start, counts, hist, featIdxs, rand)
+                : bestBinnedSplit(end - start, counts, hist, featIdxs);
+        if (bestSplit == null) {
+            return leaf(counts);
         }
+        int bestFeature = (int) bestSplit[0];
+        int bestBin = (int) bestSplit[1];
+        double bestGain = bestSplit[2];
 
-        int n = y.length;
-        int nL = leftIdxs.length;
-        int nR = rightIdxs.length;
+        int mid = partitionBinned(start, end, bestFeature, bestBin);
 
-        double eL = entropy(getSubArray(y, leftIdxs));
-        double eR = entropy(getSubArray(y, rightIdxs));
+        int[][] childHists = depth + 1 < maxDepth ? childHistograms(hist, start, mid, end) : new int[2][];
 
-        double childEntropy = ((double) nL / n) * eL + ((double) nR / n) * eR;
+        SplittableRandom leftRand = rand.split();
+        SplittableRandom rightRand = rand.split();
+        Node[] children = growChildren(end - start,
+                () -> growBinned(start, mid, depth + 1, childHists[0], leftRand),
+                () -> growBinned(mid, end, depth + 1, childHists[1], rightRand));
 
-        return parentEntropy - childEntropy;
+        return split(bestFeature, data.cuts[bestFeature][bestBin], bestGain * (end - start), children);
     }
 
-    private int[][] split(double[] XColumn, double splitThresh) {
-        List<Integer> leftIdxs = new ArrayList<>();
-        List<Integer> rightIdxs = new ArrayList<>();
+    // Returns {feature, bin, gain}, or null if no feature separates the rows
+    private double[] bestBinnedSplit(int n, int[] counts, int[] hist, int[] featIdxs) {
+        int nClasses = classes.length;
+        double parentEntropy = entropy(counts, n);
+        int[] leftCounts = new int[nClasses];
+        int[] rightCounts = new int[nClasses];
+        double bestGain = -1;
+        int splitIdx = -1;
+        int splitBin = -1;
+        long evaluations = 0;
 
-        for (int i = 0; i < XColumn.length; i++) {
-            if (XColumn[i] <= splitThresh) {
-                leftIdxs.add(i);
-            } else {
-                rightIdxs.add(i);
+        for (int featIdx : featIdxs) {
+            Arrays.fill(leftCounts, 0);
+            System.arraycopy(counts, 0, rightCounts, 0, nClasses);
+            int base = featIdx * data.maxBins * nClasses;
+            int nL = 0;
+
+            for (int b = 0; b < data.nBins(featIdx) - 1; b++) {
+                int offset = base + b * nClasses;
+                int binTotal = 0;
+                for (int c = 0; c < nClasses; c++) {
+                    int count = hist[offset + c];
+                    leftCounts[c] += count;
+                    rightCounts[c] -= count;
+                    binTotal += count;
+                }
+                if (binTotal == 0) continue;
+                nL += binTotal;
+                int nR = n - nL;
+                if (nR == 0) break;
+
+                evaluations++;
+                double childEntropy = ((double) nL / n) * entropy(leftCounts, nL) + ((double) nR / n) * entropy(rightCounts, nR);
+                double gain = parentEntropy - childEntropy;
+
+                if (gain > bestGain) {
+                    bestGain = gain;
+                    splitIdx = featIdx;
+                    splitBin = b;
+                }
             }
         }
 
-        return new int[][]{leftIdxs.stream().mapToInt(i -> i).toArray(), rightIdxs.stream().mapToInt(i -> i).toArray()};
+        splitEvaluations.add(evaluations);
+        return splitIdx < 0 ? null : new double[]{splitIdx, splitBin, bestGain};
     }
 
-    private int[][] split(double[][] X, int splitFeature, double splitThresh) {
-        List<Integer> leftIdxs = new ArrayList<>();
-        List<Integer> rightIdxs = new ArrayList<>();
+    // ExtraTrees split on bins: one uniform cut between the lowest and highest occupied bin
+    // per feature, read straight off the node histogram
+    private double[] randomBinnedSplit(int n, int[] counts, int[] hist, int[] featIdxs, SplittableRandom rand) {
+        int nClasses = classes.length;
+        double parentEntropy = entropy(counts, n);
+        int[] leftCounts = new int[nClasses];
+        int[] rightCounts = new int[nClasses];
+        double bestGain = -1;
+        int splitIdx = -1;
+        int splitBin = -1;
 
-        for (int i = 0; i < X.length; i++) {
-            if (X[i][splitFeature] <= splitThresh) {
-                leftIdxs.add(i);
+        for (int featIdx : featIdxs) {
+            int base = featIdx * data.maxBins * nClasses;
+            int minBin = -1;
+            int maxBin = -1;
+            for (int b = 0; b < data.nBins(featIdx); b++) {
+                int offset = base + b * nClasses;
+                for (int c = 0; c < nClasses; c++) {
+                    if (hist[offset + c] > 0) {
+                        if (minBin < 0) minBin = b;
+                        maxBin = b;
+                        break;
+                    }
+                }
+            }
+            if (minBin == maxBin) continue;
+            int bin = minBin + rand.nextInt(maxBin - minBin);
+
+            Arrays.fill(leftCounts, 0);
+            int nL = 0;
+            for (int b = minBin; b <= bin; b++) {
+                int offset = base + b * nClasses;
+                for (int c = 0; c < nClasses; c++) {
+                    leftCounts[c] += hist[offset + c];
+                    nL += hist[offset + c];
+                }
+            }
+            for (int c = 0; c < nClasses; c++) {
+                rightCounts[c] = counts[c] - leftCounts[c];
+            }
+            int nR = n - nL;
+            double childEntropy = ((double) nL / n) * entropy(leftCounts, nL) + ((double) nR / n) * entropy(rightCounts, nR);
+            double gain = parentEntropy - childEntropy;
+            if (gain > bestGain) {
+                bestGain = gain;
+                splitIdx = featIdx;
+                splitBin = bin;
+            }
+        }
+
+        splitEvaluations.add(featIdxs.length);
+        return splitIdx < 0 ? null : new double[]{splitIdx, splitBin, bestGain};
+    }
+
+    private int partitionBinned(int start, int end, int splitFeature, int splitBin) {
+        byte[] column = data.bins[splitFeature];
+        int i = start;
+        int j = end - 1;
+        while (i <= j) {
+            if ((column[samples[i]] & 0xFF) <= splitBin) {
+                i++;
             } else {
-                rightIdxs.add(i);
+                int tmp = samples[i];
+                samples[i] = samples[j];
+                samples[j] = tmp;
+                j--;
+            }
+        }
+        return i;
+    }
+
+    // Scans only the smaller child; the sibling is the parent minus it
+    private int[][] childHistograms(int[] hist, int start, int mid, int end) {
+        if (mid - start <= end - mid) {
+            int[] left = histogram(start, mid);
+            return new int[][]{left, subtract(hist, left)};
+        }
+        int[] right = histogram(mid, end);
+        return new int[][]{subtract(hist, right), right};
+    }
+
+    private int[] histogram(int start, int end) {
+        int nClasses = classes.length;
+        int stride = data.maxBins * nClasses;
+        int[] hist = new int[data.nFeatures() * stride];
+        for (int f = 0; f < data.nFeatures(); f++) {
+            byte[] column = data.bins[f];
+            int base = f * stride;
+            for (int i = start; i < end; i++) {
+                int row = samples[i];
+                hist[base + (column[row] & 0xFF) * nClasses + y[row]]++;
+            }
+        }
+        return hist;
+    }
+
+    // Turns parent into the histogram of the sibling of child, in place
+    private static int[] subtract(int[] parent, int[] child) {
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] -= child[i];
+        }
+        return parent;
+    }
+
+    private int[] histogramCounts(int[] hist) {
+        int nClasses = classes.length;
+        int[] counts = new int[nClasses];
+        for (int b = 0; b < data.nBins(0); b++) {
+            for (int c = 0; c < nClasses; c++) {
+                counts[c] += hist[b * nClasses + c];
             }
         }
+        return counts;
+    }
 
-        return new int[][]{leftIdxs.stream().mapToInt(i -> i).toArray(), rightIdxs.stream().mapToInt(i -> i).toArray()};
+    private int[] classCounts(int start, int end) {
+        int[] counts = new int[classes.length];
+        for (int i = start; i < end; i++) {
+            counts[y[samples[i]]]++;
+        }
+        return counts;
     }
 
-    private double entropy(int[] y) {
-        Map<Integer, Long> counts = Arrays.stream(y).boxed().collect(Collectors.groupingBy(e -> e, Collectors.counting()));
+    private static Node split(int feature, double threshold, double impurityDecrease, Node[] children) {
+        Node node = new Node(feature, threshold, children[0], children[1], null);
+        node.impurityDecrease = impurityDecrease;
+        return node;
+    }
+
+    private Node leaf(int[] counts) {
+        int best = 0;
+        for (int c = 1; c < counts.length; c++) {
+            if (counts[c] > counts[best]) best = c;
+        }
+        return new Node(null, null, null, null, best);
+    }
+
+    private static double entropy(int[] counts, int n) {
         double entropy = 0.0;
-        for (long count : counts.values()) {
-            double p = (double) count / y.length;
-            entropy -= p * Math.log(p);
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / n;
+                entropy -= p * Math.log(p);
+            }
         }
         return entropy;
     }
 
-    private int mostCommonLabel(int[] y) {
-        Map<Integer, Long> counts = Arrays.stream(y).boxed().collect(Collectors.groupingBy(e -> e, Collectors.counting()));
-        return Collections.max(counts.entrySet(), Map.Entry.comparingByValue()).getKey();
+    // Sorts keys[lo..hi] ascending, carrying idx along
+    private static void sort(double[] keys, int[] idx, int lo, int hi) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < keys[lo]) swap(keys, idx, mid, lo);
+            if (keys[hi] < keys[lo]) swap(keys, idx, hi, lo);
+            if (keys[hi] < keys[mid]) swap(keys, idx, hi, mid);
+            double pivot = keys[mid];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if (i <= j) {
+                    swap(keys, idx, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller half to bound the stack depth
+            if (j - lo < hi - i) {
+                sort(keys, idx, lo, j);
+                lo = i;
+            } else {
+                sort(keys, idx, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            double k = keys[i];
+            int v = idx[i];
+            int j = i - 1;
+            while (j >= lo && keys[j] > k) {
+                keys[j + 1] = keys[j];
+                idx[j + 1] = idx[j];
+                j--;
+            }
+            keys[j + 1] = k;
+            idx[j + 1] = v;
+        }
+    }
+
+    private static void swap(double[] keys, int[] idx, int a, int b) {
+        double k = keys[a];
+        keys[a] = keys[b];
+        keys[b] = k;
+        int v = idx[a];
+        idx[a] = idx[b];
+        idx[b] = v;
+    }
+
+    static int[] classesOf(int[] y) {
+        int[] sorted = y.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[n - 1]) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    static int[] encodeLabels(int[] y, int[] classes) {
+        int[] encoded = new int[y.length];
+        for (int i = 0; i < y.length; i++) {
+            encoded[i] = Arrays.binarySearch(classes, y[i]);
+        }
+        return encoded;
     }
 
     public int[] predict(double[][] X) {
-        return Arrays.stream(X).mapToInt(x -> traverseTree(x, root)).toArray();
+        int[] predictions = new int[X.length];
+        for (int i = 0; i < X.length; i++) {
+            predictions[i] = predict(X[i]);
+        }
+        return predictions;
+    }
+
+    public int predict(double[] x) {
+        return compiled.classes[compiled.leafClass(0, x)];
+    }
+
+    private static CompiledTrees compile(Node root, int[] classes) {
+        int size = countNodes(root);
+        CompiledTrees compiled = new CompiledTrees(new int[]{0}, new int[size], new double[size], new int[size], classes);
+        fill(compiled, root, 0);
+        return compiled;
     }
 
-    private int traverseTree(double[] x, Node node) {
+    private static int countNodes(Node node) {
+        return node.isLeafNode() ? 1 : 1 + countNodes(node.left) + countNodes(node.right);
+    }
+
+    // Edges on the longest root-to-leaf path
+    private static int depthOf(Node node) {
+        return node.isLeafNode() ? 0 : 1 + Math.max(depthOf(node.left), depthOf(node.right));
+    }
+
+    // Writes node's subtree in preorder starting at index i; returns the first index after it
+    private static int fill(CompiledTrees compiled, Node node, int i) {
         if (node.isLeafNode()) {
-            return node.value;
+            compiled.feature[i] = -1;
+            compiled.next[i] = node.value;
+            return i + 1;
         }
+        compiled.feature[i] = node.feature;
+        compiled.threshold[i] = node.threshold;
+        int right = fill(compiled, node.left, i + 1);
+        compiled.next[i] = right;
+        return fill(compiled, node.right, right);
+    }
 
-        if (x[node.feature] <= node.threshold) {
-            return traverseTree(x, node.left);
-        } else {
-            return traverseTree(x, node.right);
+    // Mean decrease in entropy contributed by each feature's splits, weighted by the rows
+    // reaching them and normalized to sum to 1
+    public double[] featureImportances() {
+        if (importances == null) {
+            throw new IllegalStateException("Tree has not been fitted");
         }
+        return importances.clone();
     }
 
-    private double[] getColumn(double[][] matrix, int col) {
-        return Arrays.stream(matrix).mapToDouble(row -> row[col]).toArray();
+    public void save(Path path) throws IOException {
+        if (compiled == null) {
+            throw new IllegalStateException("Tree has not been fitted");
+        }
+        compiled.save(path, ModelFile.DECISION_TREE);
+    }
+
+    // Predicts straight from the mapped file; the returned tree cannot be refitted from its old settings
+    public static DecisionTree load(Path path) throws IOException {
+        DecisionTree tree = new DecisionTree(2, Integer.MAX_VALUE, null);
+        tree.compiled = CompiledTrees.load(path, ModelFile.DECISION_TREE);
+        return tree;
+    }
+
+    CompiledTrees compiled() {
+        return compiled;
     }
 
-    private double[][] getSubMatrix(double[][] matrix, int[] rows) {
-        return Arrays.stream(rows).mapToObj(row -> matrix[row]).toArray(double[][]::new);
+    int depth() {
+        return depth;
     }
 
-    private int[] getSubArray(int[] array, int[] indices) {
-        return Arrays.stream(indices).map(i -> array[i]).toArray();
+    long splitEvaluations() {
+        return splitEvaluations.sum();
     }
 
-    private int[] randomSubset(int size, int total) {
-        Random rand = new Random();
-        return rand.ints(0, total).distinct().limit(size).toArray();
+    // Identity permutation of the feature indices, one per thread since subtrees may grow in
+    // parallel; randomSubset swaps into it and swaps back before returning
+    private static final ThreadLocal<int[]> featureOrder = ThreadLocal.withInitial(() -> new int[0]);
+
+    // Partial Fisher-Yates shuffle: size distinct features in random order, with exactly size
+    // draws and O(size) work, so a node does not pay for features it will not look at
+    private static int[] randomSubset(int size, int total, SplittableRandom rand) {
+        int[] features = featureOrder.get();
+        if (features.length != total) {
+            features = new int[total];
+            for (int i = 0; i < total; i++) {
+                features[i] = i;
+            }
+            featureOrder.set(features);
+        }
+        int[] swaps = new int[size];
+        for (int i = 0; i < size; i++) {
+            int j = i + rand.nextInt(total - i);
+            swaps[i] = j;
+            int tmp = features[i];
+            features[i] = features[j];
+            features[j] = tmp;
+        }
+        int[] subset = Arrays.copyOf(features, size);
+        for (int i = size - 1; i >= 0; i--) {
+            int j = swaps[i];
+            int tmp = features[i];
+            features[i] = features[j];
+            features[j] = tmp;
+        }
+        return subset;
     }
 }
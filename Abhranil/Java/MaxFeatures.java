@@ -0,0 +1,28 @@
+// Number of candidate features a tree draws at each split, given the total feature count
+public interface MaxFeatures {
+    int resolve(int totalFeatures);
+
+    static MaxFeatures all() {
+        return total -> total;
+    }
+
+    static MaxFeatures count(int count) {
+        return total -> Math.max(1, Math.min(count, total));
+    }
+
+    // The usual choice for classification forests
+    static MaxFeatures sqrt() {
+        return total -> Math.max(1, (int) Math.sqrt(total));
+    }
+
+    static MaxFeatures log2() {
+        return total -> Math.max(1, (int) (Math.log(total) / Math.log(2)));
+    }
+
+    static MaxFeatures fraction(double fraction) {
+        if (fraction <= 0 || fraction > 1) {
+            throw new IllegalArgumentException("fraction must be in (0, 1]: " + fraction);
+        }
+        return total -> Math.max(1, (int) (fraction * total));
+    }
+}
@@ -1,12 +1,43 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
 
 public class RandomForest {
+    private static final int BLOCK_ROWS = 256;
+
     private int nTrees;
     private int maxDepth;
     private int minSamplesSplit;
     private Integer nFeatures;
+    private MaxFeatures maxFeatures;
+    private boolean extraTrees;
+    private int maxBins;
+    private Long seed;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int parallelNodeSize;
+    private ExecutorService executor;
+    private TrainingListener listener;
+    private boolean oobScore;
+    private boolean permutationImportance;
     private List<DecisionTree> trees;
+    private CompiledTrees compiled;
+
+    // Carried from one fit to the next while warm starting: the seed stream, so the grown
+    // forest matches one trained at full size, and the out-of-bag tallies of existing trees
+    private boolean warmStart;
+    private SplittableRandom master;
+    private AtomicIntegerArray oobVotes;
+    private List<double[]> treeDrops;
+
+    // Out-of-bag results of the last fit, when requested
+    private double[][] oobProba;
+    private double oobAccuracy;
+    private double[] permutationImportances;
+    private final ThreadLocal<int[]> votes = new ThreadLocal<>();
 
     public RandomForest(int nTrees, int maxDepth, int minSamplesSplit, Integer nFeatures) {
         this.nTrees = nTrees;
@@ -16,55 +47,455 @@ public class RandomForest {
         this.trees = new ArrayList<>();
     }
 
+    // maxBins > 0 bins the features once and grows every tree from the shared histograms
+    public RandomForest(int nTrees, int maxDepth, int minSamplesSplit, Integer nFeatures, int maxBins) {
+        this(nTrees, maxDepth, minSamplesSplit, nFeatures);
+        this.maxBins = maxBins;
+    }
+
+    public void setNTrees(int nTrees) {
+        this.nTrees = nTrees;
+    }
+
+    // Lets fit keep the trees it already has and only grow the forest up to nTrees, e.g. from
+    // 100 to 500 trees during a search. fit must be given the same data, labels and rows as
+    // before; a forest larger than nTrees, or with other out-of-bag settings, is retrained.
+    public void setWarmStart(boolean warmStart) {
+        this.warmStart = warmStart;
+    }
+
+    // Fixes the master seed; the fitted forest is then identical for any parallelism
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    // Candidate features drawn per split, e.g. MaxFeatures.sqrt(); overrides nFeatures
+    public void setMaxFeatures(MaxFeatures maxFeatures) {
+        this.maxFeatures = maxFeatures;
+    }
+
+    // Grows extremely randomized trees, with one random threshold per candidate feature
+    public void setExtraTrees(boolean extraTrees) {
+        this.extraTrees = extraTrees;
+    }
+
+    // Number of trees trained, or row blocks scored, at once when no executor is supplied;
+    // 1 runs sequentially
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    // Lets trees split nodes of at least this many rows across threads too; 0 disables
+    public void setParallelNodeSize(int parallelNodeSize) {
+        this.parallelNodeSize = parallelNodeSize;
+    }
+
+    // Trains trees and scores row blocks on the caller's executor instead of a pool of our own
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    // Receives treeBuilt for each tree, from the thread that grew it
+    public void setListener(TrainingListener listener) {
+        this.listener = listener;
+    }
+
+    // Scores every row with the trees whose bootstrap left it out, as each tree is built,
+    // giving oobScore and oobProba without a held-out split
+    public void setOobScore(boolean oobScore) {
+        this.oobScore = oobScore;
+    }
+
+    // Measures, per tree, how much shuffling each feature among the tree's out-of-bag rows
+    // lowers its accuracy; see permutationImportances
+    public void setPermutationImportance(boolean permutationImportance) {
+        this.permutationImportance = permutationImportance;
+    }
+
     public void fit(double[][] X, int[] y) {
-        trees.clear();
-        for (int i = 0; i < nTrees; i++) {
-            DecisionTree tree = new DecisionTree(minSamplesSplit, maxDepth, nFeatures);
-            int[][] bootstrappedSamples = bootstrapSamples(X, y);
-            double[][] XSample = getSubMatrix(X, bootstrappedSamples[0]);
-            int[] ySample = getSubArray(y, bootstrappedSamples[0]);
-            tree.fit(XSample, ySample);
-            trees.add(tree);
+        fitRows(X, y, null);
+    }
+
+    // Trains on the given rows of X only, so cross-validation folds can share one matrix;
+    // y holds a label for every row of X
+    public void fit(double[][] X, int[] y, int[] rows) {
+        fitRows(X, y, rows);
+    }
+
+    private void fitRows(double[][] X, int[] y, int[] rows) {
+        if (maxBins > 0) {
+            fitRows(new BinnedData(X, maxBins), y, rows);
+            return;
         }
+        int[] classes = DecisionTree.classesOf(y);
+        int[] encoded = DecisionTree.encodeLabels(y, classes);
+        fitTrees(Dataset.of(X), rows, encoded, classes, (tree, samples) -> tree.fit(X, encoded, classes, samples));
+        compile(classes, X.length == 0 ? 0 : X[0].length);
+    }
+
+    // Trains in binned mode (maxBins, or 255 if unset) reading features column by column
+    public void fit(Dataset data, int[] y) {
+        fit(new BinnedData(data, maxBins > 0 ? maxBins : 255), y);
     }
 
-    private int[][] bootstrapSamples(double[][] X, int[] y) {
-        Random rand = new Random();
-        int nSamples = X.length;
+    public void fit(BinnedData data, int[] y) {
+        fitRows(data, y, null);
+    }
+
+    // Trains on the given rows of data only; the bins are computed once and shared by every
+    // fold or configuration fitted this way. y holds a label for every row of data.
+    public void fit(BinnedData data, int[] y, int[] rows) {
+        fitRows(data, y, rows);
+    }
+
+    private void fitRows(BinnedData data, int[] y, int[] rows) {
+        int[] classes = DecisionTree.classesOf(y);
+        int[] encoded = DecisionTree.encodeLabels(y, classes);
+        fitTrees(data.asDataset(), rows, encoded, classes, (tree, samples) -> tree.fit(data, encoded, classes, samples));
+        compile(classes, data.nFeatures());
+    }
+
+    // rows gives every row as the trees see them, for out-of-bag scoring, and trainRows the
+    // ones bootstraps draw from, or null for all of them
+    private void fitTrees(Dataset rows, int[] trainRows, int[] encoded, int[] classes, BiConsumer<DecisionTree, int[]> fitter) {
+        int nSamples = rows.nRows();
+        boolean outOfBag = oobScore || permutationImportance;
+        boolean grow = warmStart && !trees.isEmpty() && trees.size() <= nTrees
+                && oobScore == (oobVotes != null) && permutationImportance == (treeDrops != null)
+                && (oobVotes == null || oobVotes.length() == nSamples * classes.length);
+        if (!grow) {
+            trees.clear();
+            oobVotes = oobScore ? new AtomicIntegerArray(nSamples * classes.length) : null;
+            treeDrops = permutationImportance ? new ArrayList<>() : null;
+            // Per-tree seeds are drawn up front, so no tree's stream depends on scheduling
+            master = seed == null ? new SplittableRandom() : new SplittableRandom(seed);
+        }
+        AtomicIntegerArray oobVotes = this.oobVotes;
+        double[][] newDrops = new double[nTrees][];
+        List<Callable<DecisionTree>> tasks = new ArrayList<>();
+        for (int i = trees.size(); i < nTrees; i++) {
+            int index = i;
+            long treeSeed = master.nextLong();
+            tasks.add(() -> {
+                SplittableRandom rand = new SplittableRandom(treeSeed);
+                DecisionTree tree = new DecisionTree(minSamplesSplit, maxDepth, nFeatures);
+                tree.setSeed(rand.nextLong());
+                tree.setParallelNodeSize(parallelNodeSize);
+                tree.setMaxFeatures(maxFeatures);
+                tree.setExtraTrees(extraTrees);
+                int[][] bootstrappedSamples = bootstrapSamples(nSamples, trainRows, rand);
+                long start = System.nanoTime();
+                fitter.accept(tree, bootstrappedSamples[0]);
+                if (listener != null) {
+                    listener.treeBuilt(index, tree.depth(), tree.compiled().nNodes(), tree.splitEvaluations(), System.nanoTime() - start);
+                }
+                if (outOfBag) {
+                    double[] drops = scoreOutOfBag(tree.compiled(), bootstrappedSamples[0], rows, trainRows, encoded,
+                            oobVotes, permutationImportance, rand);
+                    newDrops[index] = drops;
+                }
+                return tree;
+            });
+        }
+
+        trees.addAll(runTasks(tasks));
+
+        oobProba = null;
+        permutationImportances = null;
+        if (oobVotes != null) {
+            summarizeOutOfBag(oobVotes, encoded, classes.length);
+        }
+        if (treeDrops != null) {
+            treeDrops.addAll(Arrays.asList(newDrops).subList(trees.size() - tasks.size(), nTrees));
+            // Averaged over the trees that had out-of-bag rows to score; the rest have no drops
+            permutationImportances = new double[rows.nFeatures()];
+            int contributing = 0;
+            for (double[] drops : treeDrops) {
+                if (drops == null) continue;
+                contributing++;
+                for (int f = 0; f < drops.length; f++) {
+                    permutationImportances[f] += drops[f];
+                }
+            }
+            for (int f = 0; f < permutationImportances.length; f++) {
+                permutationImportances[f] = contributing == 0 ? Double.NaN : permutationImportances[f] / contributing;
+            }
+        }
+        if (!warmStart) {
+            master = null;
+            this.oobVotes = null;
+            treeDrops = null;
+        }
+    }
+
+    // Adds the tree's vote for each training row outside its bootstrap to oobVotes, and when
+    // permute is set returns the accuracy the tree loses on those rows when each feature is
+    // shuffled. trainRows limits the candidates as in fitTrees.
+    private static double[] scoreOutOfBag(CompiledTrees tree, int[] samples, Dataset rows, int[] trainRows, int[] encoded,
+                                          AtomicIntegerArray oobVotes, boolean permute, SplittableRandom rand) {
+        int n = rows.nRows();
+        boolean[] inBag = new boolean[n];
+        for (int row : samples) {
+            inBag[row] = true;
+        }
+        int[] candidates = trainRows != null ? trainRows : IntStream.range(0, n).toArray();
+        int nOob = 0;
+        for (int r : candidates) {
+            if (!inBag[r]) nOob++;
+        }
+        int[] oobRows = new int[nOob];
+        int k = 0;
+        for (int r : candidates) {
+            if (!inBag[r]) oobRows[k++] = r;
+        }
+
+        // Rows are read one at a time into a single scratch row rather than copied out, so a
+        // tree in flight holds its out-of-bag row indices and not a third of the data
+        double[] scratch = new double[rows.nFeatures()];
+        int nClasses = tree.classes.length;
+        int correct = 0;
+        for (k = 0; k < nOob; k++) {
+            rows.row(oobRows[k], scratch, 0);
+            int predicted = tree.leafClass(0, scratch);
+            if (oobVotes != null) oobVotes.incrementAndGet(oobRows[k] * nClasses + predicted);
+            if (predicted == encoded[oobRows[k]]) correct++;
+        }
+        if (!permute || nOob == 0) return null;
+
+        // A feature the tree never splits on cannot change its predictions
+        int[] used = IntStream.range(0, tree.nNodes()).map(i -> tree.feature[i]).filter(f -> f >= 0).distinct().toArray();
+        // One shuffle of the out-of-bag rows serves every feature: row k takes feature f from
+        // row shuffled[k], which is a uniformly random permutation of that feature's values
+        int[] shuffled = oobRows.clone();
+        for (int i = nOob - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            int tmp = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = tmp;
+        }
+        int[] permutedCorrect = new int[rows.nFeatures()];
+        for (k = 0; k < nOob; k++) {
+            rows.row(oobRows[k], scratch, 0);
+            for (int f : used) {
+                double original = scratch[f];
+                scratch[f] = rows.get(shuffled[k], f);
+                if (tree.leafClass(0, scratch) == encoded[oobRows[k]]) permutedCorrect[f]++;
+                scratch[f] = original;
+            }
+        }
+        double[] drops = new double[rows.nFeatures()];
+        for (int f : used) {
+            drops[f] = (double) (correct - permutedCorrect[f]) / nOob;
+        }
+        return drops;
+    }
+
+    private void summarizeOutOfBag(AtomicIntegerArray oobVotes, int[] encoded, int nClasses) {
+        int n = encoded.length;
+        oobProba = new double[n][nClasses];
+        int scored = 0;
+        int correct = 0;
+        for (int r = 0; r < n; r++) {
+            int total = 0;
+            int best = 0;
+            for (int c = 0; c < nClasses; c++) {
+                int count = oobVotes.get(r * nClasses + c);
+                total += count;
+                if (count > oobVotes.get(r * nClasses + best)) best = c;
+            }
+            if (total == 0) {
+                Arrays.fill(oobProba[r], Double.NaN);
+                continue;
+            }
+            for (int c = 0; c < nClasses; c++) {
+                oobProba[r][c] = (double) oobVotes.get(r * nClasses + c) / total;
+            }
+            scored++;
+            if (best == encoded[r]) correct++;
+        }
+        oobAccuracy = scored == 0 ? Double.NaN : (double) correct / scored;
+    }
+
+    private void compile(int[] classes, int nFeatures) {
+        List<CompiledTrees> compiledTrees = new ArrayList<>();
+        for (DecisionTree tree : trees) {
+            compiledTrees.add(tree.compiled());
+        }
+        compiled = CompiledTrees.concat(compiledTrees, classes);
+        compiled.nFeatures = nFeatures;
+    }
+
+    private int[][] bootstrapSamples(int nSamples, int[] trainRows, SplittableRandom rand) {
+        if (trainRows != null) {
+            int[] indices = rand.ints(trainRows.length, 0, trainRows.length).map(i -> trainRows[i]).toArray();
+            return new int[][]{indices};
+        }
         int[] indices = rand.ints(nSamples, 0, nSamples).toArray();
         return new int[][]{indices};
     }
 
-    private double[][] getSubMatrix(double[][] matrix, int[] rows) {
-        return Arrays.stream(rows).mapToObj(row -> matrix[row]).toArray(double[][]::new);
+    // Majority vote over the packed trees; reuses a per-thread tally so nothing is allocated
+    public int predict(double[] x) {
+        int nClasses = compiled.classes.length;
+        int[] tally = votes.get();
+        if (tally == null || tally.length != nClasses) {
+            tally = new int[nClasses];
+            votes.set(tally);
+        }
+        Arrays.fill(tally, 0);
+        for (int t = 0; t < compiled.nTrees(); t++) {
+            tally[compiled.leafClass(t, x)]++;
+        }
+        int best = 0;
+        for (int c = 1; c < nClasses; c++) {
+            if (tally[c] > tally[best]) best = c;
+        }
+        return compiled.classes[best];
     }
 
-    private int[] getSubArray(int[] array, int[] indices) {
-        return Arrays.stream(indices).map(i -> array[i]).toArray();
+    public int[] predict(double[][] X) {
+        int nClasses = compiled.classes.length;
+        int[] predictions = new int[X.length];
+        scoreBlocks(X, (start, end, tally) -> {
+            for (int r = start; r < end; r++) {
+                int offset = (r - start) * nClasses;
+                int best = 0;
+                for (int c = 1; c < nClasses; c++) {
+                    if (tally[offset + c] > tally[offset + best]) best = c;
+                }
+                predictions[r] = compiled.classes[best];
+            }
+        });
+        return predictions;
     }
 
-    public int[] predict(double[][] X) {
-        int[][] predictions = trees.stream().map(tree -> tree.predict(X)).toArray(int[][]::new);
-        int[][] transposedPredictions = transpose(predictions);
-        return Arrays.stream(transposedPredictions).mapToInt(this::mostCommonLabel).toArray();
+    // Fraction of trees voting for each class, in the order of classes()
+    public double[][] predictProba(double[][] X) {
+        int nClasses = compiled.classes.length;
+        double[][] proba = new double[X.length][nClasses];
+        double nTrees = compiled.nTrees();
+        scoreBlocks(X, (start, end, tally) -> {
+            for (int r = start; r < end; r++) {
+                int offset = (r - start) * nClasses;
+                for (int c = 0; c < nClasses; c++) {
+                    proba[r][c] = tally[offset + c] / nTrees;
+                }
+            }
+        });
+        return proba;
     }
 
-    private int[][] transpose(int[][] matrix) {
-        int rows = matrix.length;
-        int cols = matrix[0].length;
-        int[][] transposed = new int[cols][rows];
+    public int[] classes() {
+        return compiled.classes.clone();
+    }
 
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                transposed[j][i] = matrix[i][j];
+    // Width of the rows the forest was trained on; 0 for a model file that did not record it
+    public int nFeatures() {
+        return compiled.nFeatures;
+    }
+
+    // Accuracy of the out-of-bag votes over the rows left out by at least one tree
+    public double oobScore() {
+        if (oobProba == null) {
+            throw new IllegalStateException("Fit with setOobScore(true) first");
+        }
+        return oobAccuracy;
+    }
+
+    // Per training row, the fraction of its out-of-bag trees voting for each class in the
+    // order of classes(); NaN for rows that every bootstrap drew or that fit was not given
+    public double[][] oobProba() {
+        if (oobProba == null) {
+            throw new IllegalStateException("Fit with setOobScore(true) first");
+        }
+        return oobProba;
+    }
+
+    // Mean over trees of each tree's normalized impurity decrease per feature
+    public double[] featureImportances() {
+        if (trees.isEmpty()) {
+            throw new IllegalStateException("Forest has not been fitted");
+        }
+        double[] importances = null;
+        for (DecisionTree tree : trees) {
+            double[] treeImportances = tree.featureImportances();
+            if (importances == null) importances = new double[treeImportances.length];
+            for (int f = 0; f < importances.length; f++) {
+                importances[f] += treeImportances[f] / trees.size();
             }
         }
+        return importances;
+    }
+
+    // Mean over trees with out-of-bag rows of the accuracy lost when a feature's values are
+    // shuffled; near zero or negative marks a feature the forest does not need. NaN if no tree
+    // had out-of-bag rows.
+    public double[] permutationImportances() {
+        if (permutationImportances == null) {
+            throw new IllegalStateException("Fit with setPermutationImportance(true) first");
+        }
+        return permutationImportances.clone();
+    }
+
+    public void save(Path path) throws IOException {
+        if (compiled == null) {
+            throw new IllegalStateException("Forest has not been fitted");
+        }
+        compiled.save(path, ModelFile.RANDOM_FOREST);
+    }
 
-        return transposed;
+    // Votes straight from the mapped file, so even a large forest is ready as soon as it is mapped
+    public static RandomForest load(Path path) throws IOException {
+        CompiledTrees compiled = CompiledTrees.load(path, ModelFile.RANDOM_FOREST);
+        RandomForest forest = new RandomForest(compiled.nTrees(), Integer.MAX_VALUE, 2, null);
+        forest.compiled = compiled;
+        return forest;
     }
 
-    private int mostCommonLabel(int[] array) {
-        Map<Integer, Long> counts = Arrays.stream(array).boxed().collect(Collectors.groupingBy(e -> e, Collectors.counting()));
-        return Collections.max(counts.entrySet(), Map.Entry.comparingByValue()).getKey();
+    private interface BlockConsumer {
+        void accept(int start, int end, int[] tally);
+    }
+
+    // Votes BLOCK_ROWS rows at a time so a block stays in cache while every tree walks it;
+    // blocks run on the same executor or parallelism as training
+    private void scoreBlocks(double[][] X, BlockConsumer consumer) {
+        int nBlocks = (X.length + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int block = 0; block < nBlocks; block++) {
+            int start = block * BLOCK_ROWS;
+            int end = Math.min(start + BLOCK_ROWS, X.length);
+            tasks.add(() -> {
+                int[] tally = new int[(end - start) * compiled.classes.length];
+                compiled.vote(X, start, end, tally);
+                consumer.accept(start, end, tally);
+                return null;
+            });
+        }
+        if (tasks.size() <= 1) {
+            tasks.forEach(Tasks::call);
+        } else {
+            runTasks(tasks);
+        }
+    }
+
+    // Runs the tasks on the caller's executor, on a pool of parallelism threads owned by this
+    // call, or in order on the calling thread when parallelism is 1
+    private <T> List<T> runTasks(List<Callable<T>> tasks) {
+        if (executor != null) {
+            return Tasks.runAll(executor, tasks);
+        }
+        if (parallelism > 1) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                return Tasks.runAll(pool, tasks);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        List<T> results = new ArrayList<>();
+        for (Callable<T> task : tasks) {
+            results.add(Tasks.call(task));
+        }
+        return results;
     }
 }
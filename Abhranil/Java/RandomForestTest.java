@@ -18,7 +18,9 @@ public class RandomForestTest {
 
 
         RandomForest rf = new RandomForest(10, 10, 2, null);
+        rf.setOobScore(true);
         rf.fit(XTrain, yTrain);
+        System.out.println("Out-of-bag accuracy: " + rf.oobScore() * 100 + "%");
 
 
         int[] predictions = rf.predict(XTest);
@@ -0,0 +1,101 @@
+import benchmark.Workload;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+// The model operations the JMH benchmarks in package benchmark measure, built on a fixed
+// synthetic dataset: rows of Gaussian features with a noisy linear two-class label.
+// Operations that take a thread count are handed it through the model's setParallelism;
+// the rest run on the calling thread and are benchmarked without a threads parameter.
+public class ModelWorkloads {
+    public static Workload create(String operation, int nRows, int nFeatures, int threads) {
+        Random random = new Random(42);
+        double[][] X = new double[nRows][nFeatures];
+        int[] classes = new int[nRows];
+        double[] signs = new double[nRows];
+        double[][] targets = new double[nRows][2];
+        for (int i = 0; i < nRows; i++) {
+            double score = 0;
+            for (int f = 0; f < nFeatures; f++) {
+                X[i][f] = random.nextGaussian();
+                score += (f % 2 == 0 ? 1 : -0.5) * X[i][f];
+            }
+            classes[i] = score + 0.3 * random.nextGaussian() > 0 ? 1 : 0;
+            signs[i] = classes[i] == 1 ? 1 : -1;
+            targets[i][classes[i]] = 1;
+        }
+
+        switch (operation) {
+            case "DecisionTree.fit":
+                return () -> {
+                    DecisionTree tree = new DecisionTree(2, 12, null);
+                    tree.fit(X, classes);
+                    return tree;
+                };
+            case "RandomForest.fit":
+            case "RandomForest.predict": {
+                // One pool for the whole trial rather than one per fit
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                RandomForest forest = new RandomForest(32, 12, 2, (int) Math.ceil(Math.sqrt(nFeatures)));
+                forest.setSeed(1);
+                forest.setParallelism(threads);
+                forest.setExecutor(pool);
+                if (operation.equals("RandomForest.predict")) {
+                    forest.fit(X, classes);
+                }
+                return new Workload() {
+                    @Override
+                    public Object run() {
+                        if (operation.equals("RandomForest.predict")) {
+                            return forest.predict(X);
+                        }
+                        forest.fit(X, classes);
+                        return forest;
+                    }
+
+                    @Override
+                    public void close() {
+                        pool.shutdown();
+                    }
+                };
+            }
+            case "SVM.fit":
+                return () -> {
+                    SVM svm = new SVM(1.0, 1e-3, 100, Kernel.rbf(1.0 / nFeatures));
+                    svm.fit(X, signs);
+                    return svm;
+                };
+            case "SVM.predict": {
+                SVM svm = new SVM(1.0, 1e-3, 100, Kernel.rbf(1.0 / nFeatures));
+                svm.fit(X, signs);
+                svm.setParallelism(threads);
+                return () -> svm.predict(X);
+            }
+            case "MLP.train": {
+                MLP mlp = newMlp(nFeatures);
+                mlp.setParallelism(threads);
+                // One epoch per call; the weights carry over, as in a long training run
+                return () -> {
+                    mlp.train(X, targets, 1, 0.01, 64);
+                    return mlp;
+                };
+            }
+            case "MLP.forward": {
+                MLP mlp = newMlp(nFeatures);
+                mlp.train(X, targets, 1, 0.01, 64);
+                // A single row per call, cycling through the data
+                int[] next = {0};
+                return () -> {
+                    double[] x = X[next[0]];
+                    next[0] = next[0] + 1 == nRows ? 0 : next[0] + 1;
+                    return mlp.forward(x);
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private static MLP newMlp(int nFeatures) {
+        return new MLP(new int[]{nFeatures, 64, 2}, new Activation[]{Activation.RELU, Activation.SOFTMAX}, Loss.CROSS_ENTROPY);
+    }
+}
@@ -0,0 +1,56 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Operations that spread their work over the model's own worker threads, measured for each
+// thread count. Throughput, and sampled latency with its percentiles; add -prof gc for the
+// allocation rate. See pom.xml for how to build and run.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class ParallelBenchmarks {
+    @Param({"RandomForest.fit", "RandomForest.predict", "SVM.predict", "MLP.train"})
+    public String operation;
+
+    @Param({"1000", "10000"})
+    public int rows;
+
+    @Param({"16", "64"})
+    public int features;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = Workload.create(operation, rows, features, threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workload.close();
+    }
+
+    @Benchmark
+    public Object run() {
+        return workload.run();
+    }
+}
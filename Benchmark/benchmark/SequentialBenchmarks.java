@@ -0,0 +1,46 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Operations that run on the calling thread only, so they have no threads parameter.
+// MLP.forward scores a single row per call; the others process the whole dataset.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class SequentialBenchmarks {
+    @Param({"DecisionTree.fit", "SVM.fit", "MLP.forward"})
+    public String operation;
+
+    @Param({"1000", "10000"})
+    public int rows;
+
+    @Param({"16", "64"})
+    public int features;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = Workload.create(operation, rows, features, 1);
+    }
+
+    @Benchmark
+    public Object run() {
+        return workload.run();
+    }
+}
@@ -0,0 +1,33 @@
+package benchmark;
+
+import java.lang.reflect.InvocationTargetException;
+
+// One model operation with its data and model already built, as the JMH benchmarks call it.
+// JMH refuses benchmark classes in the default package and classes in a named package cannot
+// refer to it, so the benchmarks reach the models through this interface, implemented by
+// ModelWorkloads in the default package next to them.
+public interface Workload {
+    // Runs the operation once and returns something derived from its result, so the JIT
+    // cannot drop the work
+    Object run();
+
+    // Releases threads the workload started
+    default void close() {
+    }
+
+    // ModelWorkloads.create, looked up once per trial
+    static Workload create(String operation, int rows, int features, int threads) {
+        try {
+            return (Workload) Class.forName("ModelWorkloads")
+                    .getMethod("create", String.class, int.class, int.class, int.class)
+                    .invoke(null, operation, rows, features, threads);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("ModelWorkloads is not on the class path", e);
+        }
+    }
+}
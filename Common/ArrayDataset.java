@@ -0,0 +1,49 @@
+// Dataset over an on-heap row-major double[][]
+public class ArrayDataset implements Dataset {
+    private final double[][] X;
+
+    public ArrayDataset(double[][] X) {
+        this.X = X;
+    }
+
+    @Override
+    public int nRows() {
+        return X.length;
+    }
+
+    @Override
+    public int nFeatures() {
+        return X.length == 0 ? 0 : X[0].length;
+    }
+
+    @Override
+    public double get(int row, int feature) {
+        return X[row][feature];
+    }
+
+    @Override
+    public void row(int row, double[] out, int offset) {
+        System.arraycopy(X[row], 0, out, offset, X[row].length);
+    }
+
+    @Override
+    public double dot(int row, double[] x) {
+        return Vectors.dot(x, 0, X[row], 0, X[row].length);
+    }
+
+    @Override
+    public double squaredNorm(int row) {
+        return Vectors.dot(X[row], 0, X[row], 0, X[row].length);
+    }
+
+    @Override
+    public void dots(double[] x, double[] out) {
+        for (int r = 0; r < X.length; r++) {
+            out[r] = Vectors.dot(x, 0, X[r], 0, X[r].length);
+        }
+    }
+
+    public double[][] rows() {
+        return X;
+    }
+}
@@ -0,0 +1,217 @@
+import java.util.Arrays;
+
+// Sparse matrix in compressed sparse row form: row r holds values[rowPtr[r], rowPtr[r + 1])
+// at columns indices[rowPtr[r], rowPtr[r + 1]). Products and norms touch only the stored
+// entries, so their cost follows the non-zeros rather than nFeatures. As a Dataset it can be
+// passed to SVM.fit and MLP.train directly. A view shares the arrays of the matrix it came
+// from and maps its rows onto the parent's through rowIndex, so a fold stays sparse without
+// copying any entries.
+public class CsrMatrix implements Dataset {
+    private final int nFeatures;
+    private final int[] rowPtr;
+    private final int[] indices;
+    private final double[] values;
+    // Parent row of each row of a view; null for a matrix that owns its rows
+    private final int[] rowIndex;
+
+    public CsrMatrix(int nFeatures, int[] rowPtr, int[] indices, double[] values) {
+        if (rowPtr.length == 0 || rowPtr[0] != 0 || rowPtr[rowPtr.length - 1] != indices.length || indices.length != values.length) {
+            throw new IllegalArgumentException("rowPtr must run from 0 to the number of stored entries, one per index and value");
+        }
+        for (int index : indices) {
+            if (index < 0 || index >= nFeatures) {
+                throw new IllegalArgumentException("Column index out of range: " + index);
+            }
+        }
+        this.nFeatures = nFeatures;
+        this.rowPtr = rowPtr;
+        this.indices = indices;
+        this.values = values;
+        this.rowIndex = null;
+    }
+
+    private CsrMatrix(CsrMatrix parent, int[] rowIndex) {
+        this.nFeatures = parent.nFeatures;
+        this.rowPtr = parent.rowPtr;
+        this.indices = parent.indices;
+        this.values = parent.values;
+        this.rowIndex = rowIndex;
+    }
+
+    // First and one past the last stored entry of row
+    private int from(int row) {
+        return rowPtr[rowIndex == null ? row : rowIndex[row]];
+    }
+
+    private int to(int row) {
+        return rowPtr[(rowIndex == null ? row : rowIndex[row]) + 1];
+    }
+
+    // Keeps only the non-zero entries of a dense matrix
+    public static CsrMatrix of(double[][] X) {
+        int nFeatures = X.length == 0 ? 0 : X[0].length;
+        int[] rowPtr = new int[X.length + 1];
+        for (int r = 0; r < X.length; r++) {
+            int nonZeros = 0;
+            for (double value : X[r]) {
+                if (value != 0) nonZeros++;
+            }
+            rowPtr[r + 1] = rowPtr[r] + nonZeros;
+        }
+        int[] indices = new int[rowPtr[X.length]];
+        double[] values = new double[rowPtr[X.length]];
+        for (int r = 0; r < X.length; r++) {
+            int k = rowPtr[r];
+            for (int f = 0; f < nFeatures; f++) {
+                if (X[r][f] != 0) {
+                    indices[k] = f;
+                    values[k] = X[r][f];
+                    k++;
+                }
+            }
+        }
+        return new CsrMatrix(nFeatures, rowPtr, indices, values);
+    }
+
+    // The given rows, in that order, as a new matrix
+    public CsrMatrix select(int[] rows) {
+        int[] ptr = new int[rows.length + 1];
+        for (int i = 0; i < rows.length; i++) {
+            ptr[i + 1] = ptr[i] + to(rows[i]) - from(rows[i]);
+        }
+        int[] idx = new int[ptr[rows.length]];
+        double[] val = new double[ptr[rows.length]];
+        for (int i = 0; i < rows.length; i++) {
+            int from = from(rows[i]);
+            int length = ptr[i + 1] - ptr[i];
+            System.arraycopy(indices, from, idx, ptr[i], length);
+            System.arraycopy(values, from, val, ptr[i], length);
+        }
+        return new CsrMatrix(nFeatures, ptr, idx, val);
+    }
+
+    // The given rows, in that order, still sparse and sharing this matrix's entries
+    @Override
+    public CsrMatrix view(int[] rows) {
+        int[] mapped = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] < 0 || rows[i] >= nRows()) {
+                throw new IllegalArgumentException("Row index out of range: " + rows[i]);
+            }
+            mapped[i] = rowIndex == null ? rows[i] : rowIndex[rows[i]];
+        }
+        return new CsrMatrix(this, mapped);
+    }
+
+    @Override
+    public int nRows() {
+        return rowIndex == null ? rowPtr.length - 1 : rowIndex.length;
+    }
+
+    @Override
+    public int nFeatures() {
+        return nFeatures;
+    }
+
+    public int nonZeros() {
+        if (rowIndex == null) {
+            return indices.length;
+        }
+        int sum = 0;
+        for (int r = 0; r < rowIndex.length; r++) {
+            sum += to(r) - from(r);
+        }
+        return sum;
+    }
+
+    @Override
+    public double get(int row, int feature) {
+        double sum = 0;
+        for (int k = from(row), end = to(row); k < end; k++) {
+            if (indices[k] == feature) sum += values[k];
+        }
+        return sum;
+    }
+
+    @Override
+    public void row(int row, double[] out, int offset) {
+        Arrays.fill(out, offset, offset + nFeatures, 0);
+        for (int k = from(row), end = to(row); k < end; k++) {
+            out[offset + indices[k]] += values[k];
+        }
+    }
+
+    @Override
+    public void dots(double[] x, double[] out) {
+        for (int r = 0; r < nRows(); r++) {
+            out[r] = dot(r, x, 0);
+        }
+    }
+
+    @Override
+    public double squaredNorm(int row) {
+        double sum = 0;
+        for (int k = from(row), end = to(row); k < end; k++) {
+            sum += values[k] * values[k];
+        }
+        return sum;
+    }
+
+    @Override
+    public double dot(int row, double[] x) {
+        return dot(row, x, 0);
+    }
+
+    // row . dense[offset, offset + nFeatures)
+    public double dot(int row, double[] dense, int offset) {
+        double sum = 0;
+        for (int k = from(row), end = to(row); k < end; k++) {
+            sum += values[k] * dense[offset + indices[k]];
+        }
+        return sum;
+    }
+
+    // Adds scale * row into dense[offset, offset + nFeatures)
+    public void addTo(int row, double scale, double[] dense, int offset) {
+        for (int k = from(row), end = to(row); k < end; k++) {
+            dense[offset + indices[k]] += scale * values[k];
+        }
+    }
+
+    // Zeroes the positions of dense that row has entries at, undoing addTo cheaply
+    public void clear(int row, double[] dense, int offset) {
+        for (int k = from(row), end = to(row); k < end; k++) {
+            dense[offset + indices[k]] = 0;
+        }
+    }
+
+    // c = A * b for rows [start, start + rows) as A, where b is nFeatures x n row-major
+    void multiply(int start, int rows, double[] b, double[] c, int n) {
+        Arrays.fill(c, 0, rows * n, 0);
+        for (int r = 0; r < rows; r++) {
+            int cRow = r * n;
+            for (int k = from(start + r), end = to(start + r); k < end; k++) {
+                double v = values[k];
+                int bRow = indices[k] * n;
+                for (int j = 0; j < n; j++) {
+                    c[cRow + j] += v * b[bRow + j];
+                }
+            }
+        }
+    }
+
+    // c = A^T * d for rows [start, start + rows) as A, where d is rows x n and c is nFeatures x n
+    void multiplyTransposeA(int start, int rows, double[] d, double[] c, int n) {
+        Arrays.fill(c, 0, nFeatures * n, 0);
+        for (int r = 0; r < rows; r++) {
+            int dRow = r * n;
+            for (int k = from(start + r), end = to(start + r); k < end; k++) {
+                double v = values[k];
+                int cRow = indices[k] * n;
+                for (int j = 0; j < n; j++) {
+                    c[cRow + j] += v * d[dRow + j];
+                }
+            }
+        }
+    }
+}
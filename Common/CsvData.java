@@ -0,0 +1,65 @@
+import java.util.List;
+import java.util.Map;
+
+// Result of CsvLoader: feature rows, the label column if one was chosen, and the category
+// names behind each encoded column (code i is the i-th name)
+public class CsvData {
+    private final String[] featureNames;
+    private final double[][] features;
+    private final double[] labels;
+    private final Map<String, List<String>> categories;
+
+    CsvData(String[] featureNames, double[][] features, double[] labels, Map<String, List<String>> categories) {
+        this.featureNames = featureNames;
+        this.features = features;
+        this.labels = labels;
+        this.categories = categories;
+    }
+
+    public String[] featureNames() {
+        return featureNames;
+    }
+
+    public double[][] features() {
+        return features;
+    }
+
+    public Dataset dataset() {
+        return Dataset.of(features);
+    }
+
+    public double[] labels() {
+        return labels;
+    }
+
+    // Labels as class ids, for DecisionTree and RandomForest
+    public int[] intLabels() {
+        int[] result = new int[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            result[i] = (int) labels[i];
+        }
+        return result;
+    }
+
+    // Labels as +1 for positiveClass and -1 otherwise, for SVM
+    public double[] signedLabels(double positiveClass) {
+        double[] result = new double[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            result[i] = labels[i] == positiveClass ? 1 : -1;
+        }
+        return result;
+    }
+
+    // Labels 0 .. nClasses - 1 as one-hot rows, for MLP targets
+    public double[][] oneHotLabels(int nClasses) {
+        double[][] result = new double[labels.length][nClasses];
+        for (int i = 0; i < labels.length; i++) {
+            result[i][(int) labels[i]] = 1;
+        }
+        return result;
+    }
+
+    public Map<String, List<String>> categories() {
+        return categories;
+    }
+}
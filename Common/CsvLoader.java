@@ -0,0 +1,467 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Loads a delimited text file into primitive feature rows and labels. The file is memory-mapped
+// and cut into chunks on line boundaries; chunks are parsed concurrently straight from the bytes,
+// so numeric fields never become Strings. Categorical columns (and a non-numeric label column)
+// are encoded as 0, 1, 2, ... in order of first appearance in the file, whatever the thread count.
+// Empty fields and "NaN" load as NaN. Quotes around a field are stripped; quoted delimiters and
+// line breaks are not supported.
+public class CsvLoader {
+    private static final long CHUNK_BYTES = 64L << 20;
+
+    private final Path path;
+    private char delimiter = ',';
+    private boolean header = true;
+    private int labelColumn = -1;
+    private boolean categoricalLabel;
+    private Set<Integer> categoricalColumns = new HashSet<>();
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public CsvLoader(Path path) {
+        this.path = path;
+    }
+
+    public void setDelimiter(char delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    public void setHeader(boolean header) {
+        this.header = header;
+    }
+
+    // Column holding the label, or -1 for none; categorical labels are encoded like features
+    public void setLabelColumn(int labelColumn, boolean categorical) {
+        this.labelColumn = labelColumn;
+        this.categoricalLabel = categorical;
+    }
+
+    public void setCategoricalColumns(int... columns) {
+        categoricalColumns = new HashSet<>();
+        for (int column : columns) {
+            categoricalColumns.add(column);
+        }
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public CsvData load() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long dataStart = header ? nextLineStart(channel, 0, size) : 0;
+            String[] names = columnNames(channel, dataStart, size);
+            int nColumns = names.length;
+
+            long[] bounds = chunkBounds(channel, dataStart, size);
+            List<Callable<Chunk>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                long start = bounds[i];
+                long end = bounds[i + 1];
+                tasks.add(() -> parse(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), nColumns));
+            }
+
+            List<Chunk> chunks = new ArrayList<>();
+            if (parallelism > 1 && tasks.size() > 1) {
+                ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()));
+                try {
+                    for (Future<Chunk> future : pool.invokeAll(tasks)) {
+                        chunks.add(future.get());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while parsing " + path, e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                    throw new IOException(e.getCause());
+                } finally {
+                    pool.shutdown();
+                }
+            } else {
+                for (Callable<Chunk> task : tasks) {
+                    try {
+                        chunks.add(task.call());
+                    } catch (IOException | RuntimeException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new IOException(e);
+                    }
+                }
+            }
+            return assemble(names, chunks);
+        }
+    }
+
+    // Rows and columns of the file, {nRows, nColumns}; lines are counted, not parsed
+    int[] shape() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long dataStart = header ? nextLineStart(channel, 0, size) : 0;
+            int nColumns = columnNames(channel, dataStart, size).length;
+            int[] nRows = {0};
+            long[] bounds = chunkBounds(channel, dataStart, size);
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                forEachLine(channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]), (start, end) -> nRows[0]++);
+            }
+            return new int[]{nRows[0], nColumns};
+        }
+    }
+
+    interface ChunkConsumer {
+        // values holds nRows rows of every column, label included, row-major
+        void accept(double[] values, int nRows) throws IOException;
+    }
+
+    // Parses a numeric file one chunk at a time on the calling thread and hands the rows to
+    // consumer in file order, so only one chunk is in memory whatever the file size.
+    // Categorical columns are not supported, as their codes are only final once every chunk
+    // has been seen.
+    void scan(ChunkConsumer consumer) throws IOException {
+        if (categoricalLabel || !categoricalColumns.isEmpty()) {
+            throw new IllegalStateException("scan reads numeric columns only");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long dataStart = header ? nextLineStart(channel, 0, size) : 0;
+            int nColumns = columnNames(channel, dataStart, size).length;
+            long[] bounds = chunkBounds(channel, dataStart, size);
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                Chunk chunk = parse(channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]), nColumns);
+                consumer.accept(chunk.values, chunk.nRows);
+            }
+        }
+    }
+
+    // Header names, or column0, column1, ... without a header; the label column must be one of them
+    private String[] columnNames(FileChannel channel, long dataStart, long size) throws IOException {
+        String[] names;
+        if (header) {
+            names = splitHeader(readRange(channel, 0, dataStart));
+        } else {
+            names = new String[countColumns(channel, dataStart, size)];
+            for (int c = 0; c < names.length; c++) {
+                names[c] = "column" + c;
+            }
+        }
+        if (labelColumn >= names.length) {
+            throw new IllegalArgumentException("Label column " + labelColumn + " is past the last of " + names.length + " columns in " + path);
+        }
+        return names;
+    }
+
+    // Rows parsed from one chunk: numeric values row-major, categorical fields as codes into
+    // the chunk's own dictionaries, remapped to file-wide codes once all chunks are done
+    private static class Chunk {
+        int nRows;
+        double[] values = new double[1024];
+        Map<Integer, Map<String, Integer>> dictionaries = new HashMap<>();
+        Map<Integer, List<String>> firstSeen = new HashMap<>();
+    }
+
+    private Chunk parse(ByteBuffer buffer, int nColumns) {
+        Chunk chunk = new Chunk();
+        forEachLine(buffer, (start, end) -> parseLine(buffer, start, end, nColumns, chunk));
+        return chunk;
+    }
+
+    private interface LineVisitor {
+        void visit(int start, int end);
+    }
+
+    // Calls visitor with the bounds of every non-empty line, line break excluded
+    private static void forEachLine(ByteBuffer buffer, LineVisitor visitor) {
+        int pos = 0;
+        int limit = buffer.limit();
+        while (pos < limit) {
+            int lineEnd = pos;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') lineEnd++;
+            int contentEnd = lineEnd > pos && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            if (contentEnd > pos) {
+                visitor.visit(pos, contentEnd);
+            }
+            pos = lineEnd + 1;
+        }
+    }
+
+    private void parseLine(ByteBuffer buffer, int start, int end, int nColumns, Chunk chunk) {
+        int base = chunk.nRows * nColumns;
+        if (base + nColumns > chunk.values.length) {
+            chunk.values = Arrays.copyOf(chunk.values, Math.max(base + nColumns, chunk.values.length * 2));
+        }
+        int column = 0;
+        int fieldStart = start;
+        for (int pos = start; pos <= end; pos++) {
+            if (pos == end || buffer.get(pos) == delimiter) {
+                // Extra fields are only counted, so the row is reported below rather than truncated
+                if (column >= nColumns) {
+                    column++;
+                    continue;
+                }
+                double value;
+                if (isCategorical(column)) {
+                    value = encode(chunk, column, fieldString(buffer, fieldStart, pos));
+                } else {
+                    value = parseDouble(buffer, fieldStart, pos);
+                }
+                chunk.values[base + column] = value;
+                column++;
+                fieldStart = pos + 1;
+            }
+        }
+        if (column != nColumns) {
+            throw new IllegalArgumentException("Row with " + column + " fields, expected " + nColumns + " in " + path);
+        }
+        chunk.nRows++;
+    }
+
+    private boolean isCategorical(int column) {
+        return column == labelColumn ? categoricalLabel : categoricalColumns.contains(column);
+    }
+
+    private static int encode(Chunk chunk, int column, String value) {
+        Map<String, Integer> dictionary = chunk.dictionaries.computeIfAbsent(column, c -> new HashMap<>());
+        Integer code = dictionary.get(value);
+        if (code == null) {
+            code = dictionary.size();
+            dictionary.put(value, code);
+            chunk.firstSeen.computeIfAbsent(column, c -> new ArrayList<>()).add(value);
+        }
+        return code;
+    }
+
+    private static String fieldString(ByteBuffer buffer, int start, int end) {
+        while (start < end && buffer.get(start) == ' ') start++;
+        while (end > start && buffer.get(end - 1) == ' ') end--;
+        if (end - start >= 2 && buffer.get(start) == '"' && buffer.get(end - 1) == '"') {
+            start++;
+            end--;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    // Parses a decimal number in place. Up to 15 significant digits with a decimal exponent of
+    // at most 22 are exact in a double, so one multiply or divide rounds correctly; anything
+    // else falls back to Double.parseDouble.
+    static double parseDouble(ByteBuffer buffer, int start, int end) {
+        while (start < end && (buffer.get(start) == ' ' || buffer.get(start) == '"')) start++;
+        while (end > start && (buffer.get(end - 1) == ' ' || buffer.get(end - 1) == '"')) end--;
+        if (start == end) return Double.NaN;
+
+        int pos = start;
+        boolean negative = false;
+        byte c = buffer.get(pos);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean sawDigit = false;
+        while (pos < end && (c = buffer.get(pos)) >= '0' && c <= '9') {
+            sawDigit = true;
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) digits++;
+            } else {
+                exponent++;
+            }
+            pos++;
+        }
+        if (pos < end && buffer.get(pos) == '.') {
+            pos++;
+            while (pos < end && (c = buffer.get(pos)) >= '0' && c <= '9') {
+                sawDigit = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) digits++;
+                    exponent--;
+                }
+                pos++;
+            }
+        }
+        if (sawDigit && pos < end && ((c = buffer.get(pos)) == 'e' || c == 'E')) {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < end && ((c = buffer.get(pos)) == '-' || c == '+')) {
+                negativeExponent = c == '-';
+                pos++;
+            }
+            int e = 0;
+            boolean sawExponentDigit = false;
+            while (pos < end && (c = buffer.get(pos)) >= '0' && c <= '9') {
+                sawExponentDigit = true;
+                if (e < 10000) e = e * 10 + (c - '0');
+                pos++;
+            }
+            if (!sawExponentDigit) return slowParse(buffer, start, end);
+            exponent += negativeExponent ? -e : e;
+        }
+        if (!sawDigit || pos != end) {
+            return slowParse(buffer, start, end);
+        }
+
+        if (digits <= 15 && Math.abs(exponent) <= 22) {
+            double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+            return negative ? -value : value;
+        }
+        return slowParse(buffer, start, end);
+    }
+
+    private static double slowParse(ByteBuffer buffer, int start, int end) {
+        String text = fieldString(buffer, start, end);
+        if (text.equalsIgnoreCase("nan") || text.equalsIgnoreCase("na")) return Double.NaN;
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: \"" + text + "\"; mark the column categorical", e);
+        }
+    }
+
+    private CsvData assemble(String[] names, List<Chunk> chunks) {
+        int nColumns = names.length;
+        // Merge the chunk dictionaries in file order, so codes match a sequential first-seen scan
+        Map<Integer, List<String>> categories = new TreeMap<>();
+        Map<Integer, Map<String, Integer>> global = new HashMap<>();
+        List<Map<Integer, int[]>> remaps = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            Map<Integer, int[]> remap = new HashMap<>();
+            for (Map.Entry<Integer, List<String>> entry : chunk.firstSeen.entrySet()) {
+                int column = entry.getKey();
+                Map<String, Integer> dictionary = global.computeIfAbsent(column, c -> new HashMap<>());
+                List<String> seen = categories.computeIfAbsent(column, c -> new ArrayList<>());
+                int[] codes = new int[entry.getValue().size()];
+                for (int local = 0; local < codes.length; local++) {
+                    String value = entry.getValue().get(local);
+                    Integer code = dictionary.get(value);
+                    if (code == null) {
+                        code = dictionary.size();
+                        dictionary.put(value, code);
+                        seen.add(value);
+                    }
+                    codes[local] = code;
+                }
+                remap.put(column, codes);
+            }
+            remaps.add(remap);
+        }
+
+        int nRows = 0;
+        for (Chunk chunk : chunks) {
+            nRows += chunk.nRows;
+        }
+        int nFeatures = labelColumn >= 0 ? nColumns - 1 : nColumns;
+        double[][] features = new double[nRows][nFeatures];
+        double[] labels = labelColumn >= 0 ? new double[nRows] : null;
+        int row = 0;
+        for (int k = 0; k < chunks.size(); k++) {
+            Chunk chunk = chunks.get(k);
+            Map<Integer, int[]> remap = remaps.get(k);
+            for (int r = 0; r < chunk.nRows; r++, row++) {
+                int base = r * nColumns;
+                int f = 0;
+                for (int c = 0; c < nColumns; c++) {
+                    double value = chunk.values[base + c];
+                    int[] codes = remap.get(c);
+                    if (codes != null) value = codes[(int) value];
+                    if (c == labelColumn) {
+                        labels[row] = value;
+                    } else {
+                        features[row][f++] = value;
+                    }
+                }
+            }
+        }
+
+        String[] featureNames = new String[nFeatures];
+        int f = 0;
+        for (int c = 0; c < nColumns; c++) {
+            if (c != labelColumn) featureNames[f++] = names[c];
+        }
+        Map<String, List<String>> categoryNames = new LinkedHashMap<>();
+        for (Map.Entry<Integer, List<String>> entry : categories.entrySet()) {
+            categoryNames.put(names[entry.getKey()], entry.getValue());
+        }
+        return new CsvData(featureNames, features, labels, categoryNames);
+    }
+
+    // Splits [dataStart, size) into chunks that each start at the beginning of a line
+    private long[] chunkBounds(FileChannel channel, long dataStart, long size) throws IOException {
+        long length = size - dataStart;
+        int nChunks = (int) Math.max(1, Math.max(Math.min(parallelism, length / 4096), (length + CHUNK_BYTES - 1) / CHUNK_BYTES));
+        long[] bounds = new long[nChunks + 1];
+        bounds[0] = dataStart;
+        for (int i = 1; i < nChunks; i++) {
+            long nominal = dataStart + length * i / nChunks;
+            bounds[i] = Math.max(bounds[i - 1], nextLineStart(channel, nominal - 1, size));
+        }
+        bounds[nChunks] = size;
+        return Arrays.stream(bounds).distinct().toArray();
+    }
+
+    // Position just after the first '\n' at or after from, or size if there is none
+    private static long nextLineStart(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long pos = Math.max(0, from);
+        while (pos < size) {
+            buffer.clear();
+            int n = channel.read(buffer, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') return pos + i + 1;
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    private static String readRange(FileChannel channel, long start, long end) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        byte[] bytes = new byte[(int) (end - start)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8).trim();
+    }
+
+    private String[] splitHeader(String line) {
+        List<String> names = new ArrayList<>();
+        int fieldStart = 0;
+        for (int i = 0; i <= line.length(); i++) {
+            if (i == line.length() || line.charAt(i) == delimiter) {
+                String name = line.substring(fieldStart, i).trim();
+                if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+                    name = name.substring(1, name.length() - 1);
+                }
+                names.add(name);
+                fieldStart = i + 1;
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+
+    private int countColumns(FileChannel channel, long start, long size) throws IOException {
+        String first = readRange(channel, start, Math.min(size, nextLineStart(channel, start, size)));
+        return splitHeader(first).length;
+    }
+}
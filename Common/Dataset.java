@@ -0,0 +1,63 @@
+// Read-only feature matrix that trainers consume row by row or column by column, so the
+// values can live on the heap (ArrayDataset) or in a memory-mapped file (MappedDataset)
+public interface Dataset {
+    int nRows();
+
+    int nFeatures();
+
+    double get(int row, int feature);
+
+    // Copies row into out[offset, offset + nFeatures)
+    default void row(int row, double[] out, int offset) {
+        for (int f = 0; f < nFeatures(); f++) {
+            out[offset + f] = get(row, f);
+        }
+    }
+
+    // Copies feature's values for every row into out[0, nRows)
+    default void column(int feature, double[] out) {
+        for (int r = 0; r < nRows(); r++) {
+            out[r] = get(r, feature);
+        }
+    }
+
+    // Sum of squares of row's values
+    default double squaredNorm(int row) {
+        double sum = 0;
+        for (int f = 0; f < nFeatures(); f++) {
+            double value = get(row, f);
+            sum += value * value;
+        }
+        return sum;
+    }
+
+    // x . row
+    default double dot(int row, double[] x) {
+        double sum = 0;
+        for (int f = 0; f < nFeatures(); f++) {
+            sum += x[f] * get(row, f);
+        }
+        return sum;
+    }
+
+    // Sets out[r] = x . row r for every row, in whatever order suits the storage layout
+    default void dots(double[] x, double[] out) {
+        for (int r = 0; r < nRows(); r++) {
+            double sum = 0;
+            for (int f = 0; f < nFeatures(); f++) {
+                sum += x[f] * get(r, f);
+            }
+            out[r] = sum;
+        }
+    }
+
+    // The given rows, in that order, read through from this dataset without copying; folds
+    // and bootstrap samples can share one dataset this way
+    default Dataset view(int[] rows) {
+        return new DatasetView(this, rows);
+    }
+
+    static Dataset of(double[][] X) {
+        return new ArrayDataset(X);
+    }
+}
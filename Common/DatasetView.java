@@ -0,0 +1,63 @@
+// Rows of another dataset picked by index, as returned by Dataset.view. Every read goes
+// through to the parent, so a view costs one int per row.
+class DatasetView implements Dataset {
+    private final Dataset parent;
+    private final int[] rows;
+
+    DatasetView(Dataset parent, int[] rows) {
+        for (int row : rows) {
+            if (row < 0 || row >= parent.nRows()) {
+                throw new IllegalArgumentException("Row index out of range: " + row);
+            }
+        }
+        this.parent = parent;
+        this.rows = rows;
+    }
+
+    @Override
+    public int nRows() {
+        return rows.length;
+    }
+
+    @Override
+    public int nFeatures() {
+        return parent.nFeatures();
+    }
+
+    @Override
+    public double get(int row, int feature) {
+        return parent.get(rows[row], feature);
+    }
+
+    @Override
+    public void row(int row, double[] out, int offset) {
+        parent.row(rows[row], out, offset);
+    }
+
+    @Override
+    public double squaredNorm(int row) {
+        return parent.squaredNorm(rows[row]);
+    }
+
+    @Override
+    public double dot(int row, double[] x) {
+        return parent.dot(rows[row], x);
+    }
+
+    @Override
+    public void dots(double[] x, double[] out) {
+        for (int r = 0; r < rows.length; r++) {
+            out[r] = parent.dot(rows[r], x);
+        }
+    }
+
+    // A view of a view reads the original dataset directly
+    @Override
+    public Dataset view(int[] subset) {
+        int[] mapped = new int[subset.length];
+        for (int i = 0; i < subset.length; i++) {
+            mapped[i] = rows[subset[i]];
+        }
+        return new DatasetView(parent, mapped);
+    }
+}
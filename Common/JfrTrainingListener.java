@@ -0,0 +1,102 @@
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// Emits training progress as JDK Flight Recorder events, so a recording taken with
+// -XX:StartFlightRecording shows epochs, SMO passes and tree builds next to CPU and GC data.
+// Events that the recording has disabled cost only the isEnabled check.
+public class JfrTrainingListener implements TrainingListener {
+
+    @Name("ml.MlpEpoch")
+    @Label("MLP Epoch")
+    @Category({"Machine Learning", "Training"})
+    static class EpochEvent extends Event {
+        @Label("Epoch")
+        int epoch;
+        @Label("Loss")
+        double loss;
+        @Label("Elapsed")
+        @Timespan
+        long elapsed;
+    }
+
+    @Name("ml.SvmPass")
+    @Label("SVM Pass")
+    @Category({"Machine Learning", "Training"})
+    static class PassEvent extends Event {
+        @Label("Pass")
+        int pass;
+        @Label("Iterations")
+        long iterations;
+        @Label("Changed Alphas")
+        int changedAlphas;
+        @Label("Objective")
+        double objective;
+        @Label("KKT Violation")
+        double violation;
+        @Label("Elapsed")
+        @Timespan
+        long elapsed;
+    }
+
+    @Name("ml.TreeBuilt")
+    @Label("Tree Built")
+    @Category({"Machine Learning", "Training"})
+    static class TreeEvent extends Event {
+        @Label("Tree")
+        int tree;
+        @Label("Depth")
+        int depth;
+        @Label("Nodes")
+        int nodes;
+        @Label("Split Evaluations")
+        long splitEvaluations;
+        @Label("Build Time")
+        @Timespan
+        long buildTime;
+        @Label("Nodes per Second")
+        double nodesPerSecond;
+        @Label("Split Evaluations per Second")
+        double splitEvaluationsPerSecond;
+    }
+
+    @Override
+    public void epochCompleted(int epoch, double loss, long elapsedNanos) {
+        EpochEvent event = new EpochEvent();
+        if (!event.isEnabled()) return;
+        event.epoch = epoch;
+        event.loss = loss;
+        event.elapsed = elapsedNanos;
+        event.commit();
+    }
+
+    @Override
+    public void passCompleted(int pass, long iterations, int changedAlphas, double objective, double violation, long elapsedNanos) {
+        PassEvent event = new PassEvent();
+        if (!event.isEnabled()) return;
+        event.pass = pass;
+        event.iterations = iterations;
+        event.changedAlphas = changedAlphas;
+        event.objective = objective;
+        event.violation = violation;
+        event.elapsed = elapsedNanos;
+        event.commit();
+    }
+
+    @Override
+    public void treeBuilt(int tree, int depth, int nodes, long splitEvaluations, long nanos) {
+        TreeEvent event = new TreeEvent();
+        if (!event.isEnabled()) return;
+        event.tree = tree;
+        event.depth = depth;
+        event.nodes = nodes;
+        event.splitEvaluations = splitEvaluations;
+        event.buildTime = nanos;
+        double seconds = Math.max(nanos, 1) / 1e9;
+        event.nodesPerSecond = nodes / seconds;
+        event.splitEvaluationsPerSecond = splitEvaluations / seconds;
+        event.commit();
+    }
+}
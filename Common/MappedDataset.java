@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Dataset backed by a memory-mapped columnar file, so feature values stay off-heap and
+// are paged in by the OS as trainers touch them.
+//
+// File layout, little-endian: a 32-byte header {int magic, int version, int nRows,
+// int nFeatures, int hasLabels, 12 bytes reserved}, then each feature column as nRows
+// doubles, then the label column if hasLabels is 1.
+public class MappedDataset implements Dataset {
+    static final int MAGIC = 0x4C4F434D;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    // Columns are mapped in chunks because a single mapping is limited to 2 GB
+    private static final int CHUNK_SHIFT = 27;
+    private static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+
+    private final int nRows;
+    private final int nFeatures;
+    private final DoubleBuffer[][] columns;
+    private final DoubleBuffer[] labels;
+
+    private MappedDataset(int nRows, int nFeatures, DoubleBuffer[][] columns, DoubleBuffer[] labels) {
+        this.nRows = nRows;
+        this.nFeatures = nFeatures;
+        this.columns = columns;
+        this.labels = labels;
+    }
+
+    public static MappedDataset open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a columnar dataset file: " + path);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported columnar dataset version " + header.getInt(4) + ": " + path);
+            }
+            int nRows = header.getInt(8);
+            int nFeatures = header.getInt(12);
+            boolean hasLabels = header.getInt(16) != 0;
+
+            DoubleBuffer[][] columns = new DoubleBuffer[nFeatures][];
+            for (int f = 0; f < nFeatures; f++) {
+                columns[f] = mapColumn(channel, FileChannel.MapMode.READ_ONLY, f, nRows, null);
+            }
+            DoubleBuffer[] labels = hasLabels ? mapColumn(channel, FileChannel.MapMode.READ_ONLY, nFeatures, nRows, null) : null;
+            return new MappedDataset(nRows, nFeatures, columns, labels);
+        }
+    }
+
+    // Maps column as one DoubleBuffer per chunk, adding the raw mappings to mapped when it is not null
+    private static DoubleBuffer[] mapColumn(FileChannel channel, FileChannel.MapMode mode, int column, int nRows, List<MappedByteBuffer> mapped) throws IOException {
+        int nChunks = (nRows + CHUNK_ROWS - 1) / CHUNK_ROWS;
+        DoubleBuffer[] chunks = new DoubleBuffer[nChunks];
+        long base = HEADER_BYTES + (long) column * nRows * Double.BYTES;
+        for (int c = 0; c < nChunks; c++) {
+            long rows = Math.min(CHUNK_ROWS, nRows - (long) c * CHUNK_ROWS);
+            MappedByteBuffer buffer = channel.map(mode, base + (long) c * CHUNK_ROWS * Double.BYTES, rows * Double.BYTES);
+            chunks[c] = buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            if (mapped != null) mapped.add(buffer);
+        }
+        return chunks;
+    }
+
+    @Override
+    public int nRows() {
+        return nRows;
+    }
+
+    @Override
+    public int nFeatures() {
+        return nFeatures;
+    }
+
+    @Override
+    public double get(int row, int feature) {
+        return columns[feature][row >>> CHUNK_SHIFT].get(row & (CHUNK_ROWS - 1));
+    }
+
+    @Override
+    public void column(int feature, double[] out) {
+        DoubleBuffer[] chunks = columns[feature];
+        for (int c = 0; c < chunks.length; c++) {
+            DoubleBuffer chunk = chunks[c].duplicate();
+            chunk.get(out, c * CHUNK_ROWS, chunk.remaining());
+        }
+    }
+
+    // Sweeps one column at a time, so every read is sequential
+    @Override
+    public void dots(double[] x, double[] out) {
+        Arrays.fill(out, 0, nRows, 0);
+        for (int f = 0; f < nFeatures; f++) {
+            double xf = x[f];
+            if (xf == 0) continue;
+            DoubleBuffer[] chunks = columns[f];
+            for (int c = 0; c < chunks.length; c++) {
+                DoubleBuffer chunk = chunks[c];
+                int offset = c * CHUNK_ROWS;
+                int n = chunk.limit();
+                for (int i = 0; i < n; i++) {
+                    out[offset + i] += xf * chunk.get(i);
+                }
+            }
+        }
+    }
+
+    public boolean hasLabels() {
+        return labels != null;
+    }
+
+    public double label(int row) {
+        return labels[row >>> CHUNK_SHIFT].get(row & (CHUNK_ROWS - 1));
+    }
+
+    // Copies the label column onto the heap, as the trainers take labels as arrays
+    public double[] labels() {
+        double[] result = new double[nRows];
+        for (int r = 0; r < nRows; r++) {
+            result[r] = label(r);
+        }
+        return result;
+    }
+
+    public int[] intLabels() {
+        int[] result = new int[nRows];
+        for (int r = 0; r < nRows; r++) {
+            result[r] = (int) label(r);
+        }
+        return result;
+    }
+
+    // Writes data, and labels when not null, in the columnar format
+    public static void write(Path path, Dataset data, double[] labels) throws IOException {
+        try (ColumnWriter writer = new ColumnWriter(path, data.nRows(), data.nFeatures(), labels != null)) {
+            double[] row = new double[data.nFeatures()];
+            for (int r = 0; r < data.nRows(); r++) {
+                data.row(r, row, 0);
+                writer.put(r, row, labels == null ? 0 : labels[r]);
+            }
+        }
+    }
+
+    // Streams a numeric CSV into the columnar format without holding it in memory: one pass
+    // counts the rows, a second parses them with CsvLoader a chunk at a time straight into the
+    // mapped output columns. labelColumn < 0 means the file has no label column.
+    public static void convertCsv(Path csv, Path out, int labelColumn, boolean hasHeader) throws IOException {
+        if (Files.size(csv) == 0) {
+            throw new IOException("Empty CSV file: " + csv);
+        }
+        CsvLoader loader = new CsvLoader(csv);
+        loader.setHeader(hasHeader);
+        loader.setLabelColumn(labelColumn, false);
+        loader.setParallelism(1);
+        int[] shape = loader.shape();
+        int nRows = shape[0];
+        int nColumns = shape[1];
+
+        boolean hasLabels = labelColumn >= 0;
+        int nFeatures = hasLabels ? nColumns - 1 : nColumns;
+        try (ColumnWriter writer = new ColumnWriter(out, nRows, nFeatures, hasLabels)) {
+            double[] row = new double[nFeatures];
+            int[] next = {0};
+            loader.scan((values, rows) -> {
+                for (int i = 0; i < rows; i++) {
+                    double label = 0;
+                    int f = 0;
+                    for (int c = 0; c < nColumns; c++) {
+                        double value = values[i * nColumns + c];
+                        if (c == labelColumn) {
+                            label = value;
+                        } else {
+                            row[f++] = value;
+                        }
+                    }
+                    writer.put(next[0]++, row, label);
+                }
+            });
+        }
+    }
+
+    // Output file mapped read-write one column at a time
+    static class ColumnWriter implements AutoCloseable {
+        private final FileChannel channel;
+        private final DoubleBuffer[][] columns;
+        private final DoubleBuffer[] labels;
+        private final List<MappedByteBuffer> mapped = new ArrayList<>();
+
+        ColumnWriter(Path path, int nRows, int nFeatures, boolean hasLabels) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(8, nRows);
+            header.putInt(12, nFeatures);
+            header.putInt(16, hasLabels ? 1 : 0);
+            mapped.add(header);
+
+            this.columns = new DoubleBuffer[nFeatures][];
+            for (int f = 0; f < nFeatures; f++) {
+                columns[f] = mapColumn(channel, FileChannel.MapMode.READ_WRITE, f, nRows, mapped);
+            }
+            this.labels = hasLabels ? mapColumn(channel, FileChannel.MapMode.READ_WRITE, nFeatures, nRows, mapped) : null;
+        }
+
+        void put(int r, double[] row, double label) {
+            int chunk = r >>> CHUNK_SHIFT;
+            int index = r & (CHUNK_ROWS - 1);
+            for (int f = 0; f < columns.length; f++) {
+                columns[f][chunk].put(index, row[f]);
+            }
+            if (labels != null) {
+                labels[chunk].put(index, label);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (MappedByteBuffer buffer : mapped) {
+                buffer.force();
+            }
+            channel.close();
+        }
+    }
+}
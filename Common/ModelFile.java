@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Binary model files shared by DecisionTree, RandomForest, SVM and MLP.
+//
+// File layout, little-endian: a 16-byte header {int magic, int version, int type, 4 bytes
+// reserved}, then the model's payload. Payloads keep every double array 8-byte aligned,
+// so a mapped file can be read through IntBuffer and DoubleBuffer views in place.
+// A file is mapped as one region, which limits it to 2 GB.
+class ModelFile {
+    static final int MAGIC = 0x4C444F4D;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+
+    static final int DECISION_TREE = 1;
+    static final int RANDOM_FOREST = 2;
+    static final int SVM = 3;
+    static final int MLP = 4;
+
+    private ModelFile() {
+    }
+
+    // Creates path with room for payloadBytes and returns the mapping positioned after the header;
+    // call force on it once the payload is written
+    static MappedByteBuffer create(Path path, int type, long payloadBytes) throws IOException {
+        long size = HEADER_BYTES + payloadBytes;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Model of " + size + " bytes exceeds the 2 GB file limit: " + path);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(type).putInt(0);
+            return buffer;
+        }
+    }
+
+    // Maps path read-only and returns the mapping positioned after the header
+    static MappedByteBuffer open(Path path, int type) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Model file exceeds the 2 GB limit: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a model file: " + path);
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported model file version " + buffer.getInt(4) + ": " + path);
+            }
+            if (buffer.getInt(8) != type) {
+                throw new IOException("Model file holds type " + buffer.getInt(8) + ", expected " + type + ": " + path);
+            }
+            buffer.position(HEADER_BYTES);
+            return buffer;
+        }
+    }
+
+    // Bytes taken by n ints, padded to keep what follows 8-byte aligned
+    static long intBytes(long n) {
+        return (n * Integer.BYTES + 7) & ~7L;
+    }
+
+    static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position((int) (buffer.position() + intBytes(values.length)));
+    }
+
+    static void putDoubles(ByteBuffer buffer, double[] values) {
+        buffer.asDoubleBuffer().put(values);
+        buffer.position(buffer.position() + values.length * Double.BYTES);
+    }
+
+    // A view of the next n ints, leaving buffer positioned after them
+    static IntBuffer intView(ByteBuffer buffer, int n) {
+        IntBuffer view = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        view.limit(n);
+        buffer.position((int) (buffer.position() + intBytes(n)));
+        return view;
+    }
+
+    static DoubleBuffer doubleView(ByteBuffer buffer, int n) {
+        DoubleBuffer view = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        view.limit(n);
+        buffer.position(buffer.position() + n * Double.BYTES);
+        return view;
+    }
+
+    static int[] getInts(ByteBuffer buffer, int n) {
+        int[] values = new int[n];
+        intView(buffer, n).get(values);
+        return values;
+    }
+
+    static double[] getDoubles(ByteBuffer buffer, int n) {
+        double[] values = new double[n];
+        doubleView(buffer, n).get(values);
+        return values;
+    }
+}
@@ -0,0 +1,26 @@
+// Progress callbacks fired while models train; every method defaults to doing nothing, so a
+// listener overrides only what it needs. RandomForest reports trees from its worker threads,
+// so a listener used with a parallel fit must be thread-safe. An exception thrown from a
+// callback aborts the fit, which is how a caller enforces its own timeout.
+public interface TrainingListener {
+    // MLP.train: after each epoch, with the mean loss of the rows as they were trained on
+    // and the time since train started
+    default void epochCompleted(int epoch, double loss, long elapsedNanos) {
+    }
+
+    // MLP.train: after each epoch's epochCompleted, when validation data is set
+    default void validationCompleted(int epoch, double loss) {
+    }
+
+    // SVM.fit: after each pass of max(rows, 1000) SMO steps, and once more when the solver
+    // stops. changedAlphas counts the distinct multipliers the pass moved; objective is the
+    // dual objective 0.5 a'Qa - e'a, approximate while variables are shrunk; violation is
+    // the largest KKT violation seen, which the solver drives below tol.
+    default void passCompleted(int pass, long iterations, int changedAlphas, double objective, double violation, long elapsedNanos) {
+    }
+
+    // DecisionTree.fit and RandomForest.fit: after each tree, with its index in the forest
+    // (0 for a single tree), shape, the number of candidate splits scored and its build time
+    default void treeBuilt(int tree, int depth, int nodes, long splitEvaluations, long nanos) {
+    }
+}
@@ -0,0 +1,22 @@
+// Dense vector kernels shared by the datasets and the models
+public final class Vectors {
+    private Vectors() {
+    }
+
+    // Dot product of x[xOff, xOff + n) and z[zOff, zOff + n); four independent accumulators
+    // let the JIT pipeline the multiply-adds
+    public static double dot(double[] x, int xOff, double[] z, int zOff, int n) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += x[xOff + i] * z[zOff + i];
+            s1 += x[xOff + i + 1] * z[zOff + i + 1];
+            s2 += x[xOff + i + 2] * z[zOff + i + 2];
+            s3 += x[xOff + i + 3] * z[zOff + i + 3];
+        }
+        for (; i < n; i++) {
+            s0 += x[xOff + i] * z[zOff + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
@@ -0,0 +1,107 @@
+// Kernel function written in terms of x.z, ||x||^2 and ||z||^2, so callers can evaluate
+// whole kernel rows from one batch of dot products and squared norms computed once
+public interface Kernel {
+    double compute(double dot, double xNorm, double zNorm);
+
+    // Whether compute reads the squared norms; callers may pass 0 when it does not
+    default boolean usesNorms() {
+        return false;
+    }
+
+    default double apply(double[] x, double[] z) {
+        if (usesNorms()) {
+            return compute(dot(x, z), dot(x, x), dot(z, z));
+        }
+        return compute(dot(x, z), 0, 0);
+    }
+
+    static double dot(double[] x, double[] z) {
+        return dot(x, 0, z, 0, x.length);
+    }
+
+    static double dot(double[] x, int xOff, double[] z, int zOff, int n) {
+        return Vectors.dot(x, xOff, z, zOff, n);
+    }
+
+    static Kernel linear() {
+        return new Linear();
+    }
+
+    static Kernel rbf(double gamma) {
+        return new Rbf(gamma);
+    }
+
+    static Kernel polynomial(double gamma, double coef0, int degree) {
+        return new Polynomial(gamma, coef0, degree);
+    }
+
+    static Kernel sigmoid(double gamma, double coef0) {
+        return new Sigmoid(gamma, coef0);
+    }
+
+    // x.z
+    final class Linear implements Kernel {
+        @Override
+        public double compute(double dot, double xNorm, double zNorm) {
+            return dot;
+        }
+    }
+
+    // exp(-gamma ||x - z||^2), with ||x - z||^2 = ||x||^2 + ||z||^2 - 2 x.z
+    final class Rbf implements Kernel {
+        final double gamma;
+
+        Rbf(double gamma) {
+            this.gamma = gamma;
+        }
+
+        @Override
+        public double compute(double dot, double xNorm, double zNorm) {
+            return Math.exp(-gamma * Math.max(0, xNorm + zNorm - 2 * dot));
+        }
+
+        @Override
+        public boolean usesNorms() {
+            return true;
+        }
+    }
+
+    // (gamma x.z + coef0)^degree
+    final class Polynomial implements Kernel {
+        final double gamma;
+        final double coef0;
+        final int degree;
+
+        Polynomial(double gamma, double coef0, int degree) {
+            this.gamma = gamma;
+            this.coef0 = coef0;
+            this.degree = degree;
+        }
+
+        @Override
+        public double compute(double dot, double xNorm, double zNorm) {
+            double base = gamma * dot + coef0;
+            double result = 1;
+            for (int d = 0; d < degree; d++) {
+                result *= base;
+            }
+            return result;
+        }
+    }
+
+    // tanh(gamma x.z + coef0)
+    final class Sigmoid implements Kernel {
+        final double gamma;
+        final double coef0;
+
+        Sigmoid(double gamma, double coef0) {
+            this.gamma = gamma;
+            this.coef0 = coef0;
+        }
+
+        @Override
+        public double compute(double dot, double xNorm, double zNorm) {
+            return Math.tanh(gamma * dot + coef0);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Least-recently-used cache of kernel matrix rows K(x[i], x[*]) held within a byte budget,
+// plus the always-resident diagonal K(x[i], x[i]). Rows are built from one Dataset.dots
+// sweep, so a memory-mapped columnar dataset is read sequentially.
+//
+// Safe to share between solvers on different threads: rows are built outside the lock, so
+// two threads missing on the same row may both build it, and the first one stored wins.
+class KernelCache implements KernelMatrix {
+    private final Dataset data;
+    private final Kernel kernel;
+    private final double[] norms;
+    private final double[] diag;
+    private final LinkedHashMap<Integer, double[]> rows;
+
+    KernelCache(Dataset data, Kernel kernel, long budgetBytes) {
+        int n = data.nRows();
+        this.data = data;
+        this.kernel = kernel;
+        this.norms = new double[n];
+        this.diag = new double[n];
+        for (int i = 0; i < n; i++) {
+            norms[i] = data.squaredNorm(i);
+            diag[i] = kernel.compute(norms[i], norms[i], norms[i]);
+        }
+        this.rows = lruMap(Math.max(2, Math.min(n, budgetBytes / (8L * n))));
+    }
+
+    // Keeps at least the two rows of the current working pair
+    private static LinkedHashMap<Integer, double[]> lruMap(long maxRows) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, double[]> eldest) {
+                return size() > maxRows;
+            }
+        };
+    }
+
+    @Override
+    public double[] row(int i) {
+        synchronized (rows) {
+            double[] row = rows.get(i);
+            if (row != null) return row;
+        }
+        double[] row = new double[norms.length];
+        double[] x = new double[data.nFeatures()];
+        data.row(i, x, 0);
+        data.dots(x, row);
+        for (int t = 0; t < row.length; t++) {
+            row[t] = kernel.compute(row[t], norms[i], norms[t]);
+        }
+        synchronized (rows) {
+            double[] stored = rows.putIfAbsent(i, row);
+            return stored != null ? stored : row;
+        }
+    }
+
+    @Override
+    public double diag(int i) {
+        return diag[i];
+    }
+
+    @Override
+    public int size() {
+        return norms.length;
+    }
+
+    // The kernel matrix restricted to the given training rows, in that order, reading through
+    // this cache. Gathered rows are kept in the view's own LRU within budgetBytes; a view is
+    // meant for one solver, so unlike the cache it is not thread-safe.
+    KernelMatrix subset(int[] members, long budgetBytes) {
+        int m = members.length;
+        LinkedHashMap<Integer, double[]> gathered = lruMap(Math.max(2, Math.min(m, budgetBytes / (8L * Math.max(m, 1)))));
+        return new KernelMatrix() {
+            @Override
+            public double[] row(int i) {
+                double[] row = gathered.get(i);
+                if (row == null) {
+                    double[] full = KernelCache.this.row(members[i]);
+                    row = new double[m];
+                    for (int t = 0; t < m; t++) {
+                        row[t] = full[members[t]];
+                    }
+                    gathered.put(i, row);
+                }
+                return row;
+            }
+
+            @Override
+            public double diag(int i) {
+                return diag[members[i]];
+            }
+
+            @Override
+            public int size() {
+                return m;
+            }
+        };
+    }
+}
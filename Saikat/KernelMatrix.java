@@ -0,0 +1,8 @@
+// Rows and diagonal of a kernel matrix over a fixed training set, as SmoSolver reads them
+interface KernelMatrix {
+    double[] row(int i);
+
+    double diag(int i);
+
+    int size();
+}
@@ -0,0 +1,238 @@
+import java.util.SplittableRandom;
+
+// Dual coordinate descent for the linear SVM, following liblinear (Hsieh et al. 2008):
+//     min 0.5 a'(Q + D)a - e'a   subject to 0 <= a <= U,   Q[i][j] = y[i] y[j] (x[i]'x[j] + 1)
+// Hinge loss has U = C and D = 0, squared hinge U = infinity and D = 1 / (2C). The primal
+// w = sum a[i] y[i] x[i] is kept up to date, so each coordinate step costs one dot product
+// and one axpy over the row's non-zeros instead of a kernel row. The bias is folded in as a
+// constant feature of 1 and so is regularized along with w, as in liblinear with -B 1.
+// Rows are visited in a fresh random order every epoch, and variables stuck at a bound are
+// shrunk out of the epoch until the projected gradient says they may move again.
+class LinearSolver {
+    private final Dataset X;
+    private final CsrMatrix sparse;
+    private final double[] y;
+    private final double upper;
+    private final double diag;
+    private final double C;
+    private final boolean squaredHinge;
+    private final double eps;
+    private final long maxIter;
+    private final boolean shrinking;
+    private final SplittableRandom random;
+
+    private final int l;
+    private final double[] alpha;
+    private final double[] w;
+    private double b;
+    // Dense copy of the current row when X is not a CsrMatrix
+    private final double[] row;
+    private long iterations;
+    private int epochs;
+    private boolean converged;
+    private long timeLimitNanos;
+    private double gapTolerance;
+    private double[] initialAlpha;
+
+    private TrainingListener listener;
+    private long startNanos;
+    private int changedInEpoch;
+
+    LinearSolver(Dataset X, double[] y, double C, boolean squaredHinge, double eps, long maxIter, boolean shrinking, SplittableRandom random) {
+        this.X = X;
+        this.sparse = X instanceof CsrMatrix ? (CsrMatrix) X : null;
+        this.y = y;
+        this.C = C;
+        this.squaredHinge = squaredHinge;
+        this.upper = squaredHinge ? Double.POSITIVE_INFINITY : C;
+        this.diag = squaredHinge ? 0.5 / C : 0;
+        this.eps = eps;
+        this.maxIter = maxIter;
+        this.shrinking = shrinking;
+        this.random = random;
+        this.l = y.length;
+        this.alpha = new double[l];
+        this.w = new double[X.nFeatures()];
+        this.row = sparse == null ? new double[X.nFeatures()] : null;
+    }
+
+    // Reports every epoch to the listener
+    void setListener(TrainingListener listener) {
+        this.listener = listener;
+    }
+
+    // Stops solve after this long even if not converged; 0 means no limit
+    void setTimeLimit(long nanos) {
+        this.timeLimitNanos = nanos;
+    }
+
+    // Also stops once the relative duality gap, checked every epoch, falls below tolerance
+    void setGapTolerance(double tolerance) {
+        this.gapTolerance = tolerance;
+    }
+
+    // Starts from these multipliers, clipped to [0, U], instead of zero
+    void setInitialAlphas(double[] initialAlpha) {
+        this.initialAlpha = initialAlpha;
+    }
+
+    void solve() {
+        startNanos = System.nanoTime();
+        double[] qd = new double[l];
+        int[] index = new int[l];
+        for (int i = 0; i < l; i++) {
+            qd[i] = X.squaredNorm(i) + 1 + diag;
+            index[i] = i;
+            if (initialAlpha != null && initialAlpha[i] > 0) {
+                alpha[i] = Math.min(initialAlpha[i], upper);
+                dot(i);
+                axpy(i, alpha[i] * y[i]);
+                b += alpha[i] * y[i];
+            }
+        }
+
+        int activeSize = l;
+        // Bounds on the projected gradient from the previous epoch, which decide shrinking
+        double maxOld = Double.POSITIVE_INFINITY;
+        double minOld = Double.NEGATIVE_INFINITY;
+        while (iterations < maxIter) {
+            for (int s = activeSize - 1; s > 0; s--) {
+                int r = random.nextInt(s + 1);
+                int swap = index[s];
+                index[s] = index[r];
+                index[r] = swap;
+            }
+
+            double maxNew = Double.NEGATIVE_INFINITY;
+            double minNew = Double.POSITIVE_INFINITY;
+            for (int s = 0; s < activeSize; s++) {
+                int i = index[s];
+                double G = y[i] * (dot(i) + b) - 1 + diag * alpha[i];
+
+                double PG = 0;
+                if (alpha[i] == 0) {
+                    if (shrinking && G > maxOld) {
+                        activeSize--;
+                        index[s] = index[activeSize];
+                        index[activeSize] = i;
+                        s--;
+                        continue;
+                    }
+                    if (G < 0) PG = G;
+                } else if (alpha[i] == upper) {
+                    if (shrinking && G < minOld) {
+                        activeSize--;
+                        index[s] = index[activeSize];
+                        index[activeSize] = i;
+                        s--;
+                        continue;
+                    }
+                    if (G > 0) PG = G;
+                } else {
+                    PG = G;
+                }
+                maxNew = Math.max(maxNew, PG);
+                minNew = Math.min(minNew, PG);
+
+                iterations++;
+                if (Math.abs(PG) > 1e-12) {
+                    double old = alpha[i];
+                    alpha[i] = Math.min(Math.max(old - G / qd[i], 0), upper);
+                    double step = (alpha[i] - old) * y[i];
+                    axpy(i, step);
+                    b += step;
+                    changedInEpoch++;
+                }
+            }
+            epochs++;
+            if (listener != null) {
+                listener.passCompleted(epochs - 1, iterations, changedInEpoch, objective(), maxNew - minNew, System.nanoTime() - startNanos);
+            }
+            changedInEpoch = 0;
+
+            if (maxNew - minNew <= eps) {
+                // Converged on the active set; check again on the whole problem
+                if (activeSize == l) {
+                    converged = true;
+                    break;
+                }
+                activeSize = l;
+                maxOld = Double.POSITIVE_INFINITY;
+                minOld = Double.NEGATIVE_INFINITY;
+                continue;
+            }
+            maxOld = maxNew <= 0 ? Double.POSITIVE_INFINITY : maxNew;
+            minOld = minNew >= 0 ? Double.NEGATIVE_INFINITY : minNew;
+
+            if (gapTolerance > 0 && relativeGap() < gapTolerance) {
+                converged = true;
+                break;
+            }
+            if (timeLimitNanos > 0 && System.nanoTime() - startNanos > timeLimitNanos) {
+                break;
+            }
+        }
+    }
+
+    // w . x[i]; for dense data this also leaves x[i] in row for the axpy that may follow
+    private double dot(int i) {
+        if (sparse != null) {
+            return sparse.dot(i, w, 0);
+        }
+        X.row(i, row, 0);
+        return Kernel.dot(w, row);
+    }
+
+    // w += scale * x[i], right after dot(i)
+    private void axpy(int i, double scale) {
+        if (sparse != null) {
+            sparse.addTo(i, scale, w, 0);
+            return;
+        }
+        for (int f = 0; f < w.length; f++) {
+            w[f] += scale * row[f];
+        }
+    }
+
+    // 0.5 a'(Q + D)a - e'a, where a'Qa = |w|^2 + b^2
+    private double objective() {
+        double sum = Kernel.dot(w, w) + b * b;
+        for (int i = 0; i < l; i++) {
+            sum += diag * alpha[i] * alpha[i] - 2 * alpha[i];
+        }
+        return sum / 2;
+    }
+
+    // (P - D) / P for the primal P = 0.5 (|w|^2 + b^2) + C sum loss(y f(x)) and D = -objective().
+    // Costs one extra pass over the data.
+    private double relativeGap() {
+        double lossSum = 0;
+        for (int i = 0; i < l; i++) {
+            double margin = Math.max(0, 1 - y[i] * (dot(i) + b));
+            lossSum += squaredHinge ? margin * margin : margin;
+        }
+        double primal = 0.5 * (Kernel.dot(w, w) + b * b) + C * lossSum;
+        return (primal + objective()) / Math.max(primal, 1e-12);
+    }
+
+    double[] alphas() {
+        return alpha;
+    }
+
+    double[] weights() {
+        return w;
+    }
+
+    double bias() {
+        return b;
+    }
+
+    // Coordinate steps taken, counting the ones that found nothing to do
+    long iterations() {
+        return iterations;
+    }
+
+    boolean converged() {
+        return converged;
+    }
+}
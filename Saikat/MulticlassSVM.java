@@ -0,0 +1,306 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.stream.IntStream;
+
+// Multiclass SVM built from binary SMO problems: one-vs-rest trains one model per class
+// against all other rows, one-vs-one one model per pair of classes on just their rows.
+// The binary problems train in parallel and read kernel values from one KernelCache over the
+// whole training set, so a value needed by several problems is computed once. The fitted
+// sub-models share a single pool of support vectors: predict computes a row's kernel values
+// against the pool once and every sub-model sums its coefficients over them.
+public class MulticlassSVM {
+    public enum Strategy { ONE_VS_REST, ONE_VS_ONE }
+
+    private final double C;
+    private final double tol;
+    private final int maxPasses;
+    private final Kernel kernel;
+    private final Strategy strategy;
+    private int cacheSizeMb = 100;
+    private boolean shrinking = true;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private ExecutorService executor;
+
+    // Fitted model: the distinct support vectors of all sub-models, and for sub-model k its
+    // positive and negative class, bias, and coefficients alpha * y over the pool rows in
+    // support[k]
+    private int[] classes;
+    private Dataset supportVectors;
+    private double[] svNorms;
+    private int[] positive;
+    private int[] negative;
+    private double[] bias;
+    private int[][] support;
+    private double[][] coef;
+
+    public MulticlassSVM(double C, double tol, int maxPasses, Kernel kernel, Strategy strategy) {
+        this.C = C;
+        this.tol = tol;
+        this.maxPasses = maxPasses;
+        this.kernel = kernel;
+        this.strategy = strategy;
+    }
+
+    // Memory budget for cached kernel values during fit, shared by all sub-models
+    public void setCacheSizeMb(int cacheSizeMb) {
+        this.cacheSizeMb = cacheSizeMb;
+    }
+
+    public void setShrinking(boolean shrinking) {
+        this.shrinking = shrinking;
+    }
+
+    // Sub-models trained at once when no executor is supplied, and threads used by the batch
+    // predict; 1 does both sequentially
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    // Trains sub-models on the caller's executor instead of a pool owned by fit
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void fit(double[][] X, int[] y) {
+        fit(Dataset.of(X), y);
+    }
+
+    // Labels may be any ints; predict returns them as given
+    public void fit(Dataset X, int[] y) {
+        classes = IntStream.of(y).distinct().sorted().toArray();
+        if (classes.length < 2) {
+            throw new IllegalArgumentException("Need at least two classes, got " + classes.length);
+        }
+        int n = X.nRows();
+        int[] encoded = new int[n];
+        for (int i = 0; i < n; i++) {
+            encoded[i] = Arrays.binarySearch(classes, y[i]);
+        }
+
+        int nModels = strategy == Strategy.ONE_VS_REST ? classes.length : classes.length * (classes.length - 1) / 2;
+        positive = new int[nModels];
+        negative = new int[nModels];
+        int k = 0;
+        for (int a = 0; a < classes.length; a++) {
+            if (strategy == Strategy.ONE_VS_REST) {
+                positive[k] = a;
+                negative[k++] = -1;
+                continue;
+            }
+            for (int b = a + 1; b < classes.length; b++) {
+                positive[k] = a;
+                negative[k++] = b;
+            }
+        }
+
+        // Half the budget holds full kernel rows, shared; the rest is split among the
+        // per-problem views that one-vs-one gathers its rows into, one share for each
+        // sub-model that can be training at the same time
+        long budget = this.cacheSizeMb * 1024L * 1024L;
+        int workers = parallelism <= 1 ? 1 : Math.min(parallelism, nModels);
+        int concurrent = executor != null ? Math.min(threadsOf(executor), nModels) : workers;
+        KernelCache cache = new KernelCache(X, kernel, strategy == Strategy.ONE_VS_REST ? budget : budget / 2);
+        long viewBudget = budget / 2 / Math.max(concurrent, 1);
+
+        List<Callable<double[]>> tasks = new ArrayList<>();
+        int[][] members = new int[nModels][];
+        for (int m = 0; m < nModels; m++) {
+            int model = m;
+            tasks.add(() -> {
+                int[] rows = rowsOf(encoded, positive[model], negative[model]);
+                members[model] = rows;
+                double[] signs = new double[rows.length];
+                for (int i = 0; i < rows.length; i++) {
+                    signs[i] = encoded[rows[i]] == positive[model] ? 1 : -1;
+                }
+                KernelMatrix matrix = rows.length == n ? cache : cache.subset(rows, viewBudget);
+                long maxIter = (long) maxPasses * Math.max(rows.length, 1000);
+                SmoSolver solver = new SmoSolver(matrix, signs, C, tol, maxIter, shrinking);
+                solver.solve();
+                // alphas * signs, then the bias last
+                double[] alphas = solver.alphas();
+                double[] result = new double[rows.length + 1];
+                for (int i = 0; i < rows.length; i++) {
+                    result[i] = alphas[i] * signs[i];
+                }
+                result[rows.length] = solver.bias();
+                return result;
+            });
+        }
+
+        List<double[]> solutions;
+        if (executor != null) {
+            solutions = Tasks.runAll(executor, tasks);
+        } else if (parallelism > 1) {
+            ExecutorService pool = Executors.newFixedThreadPool(workers);
+            try {
+                solutions = Tasks.runAll(pool, tasks);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            solutions = new ArrayList<>();
+            for (Callable<double[]> task : tasks) {
+                solutions.add(Tasks.call(task));
+            }
+        }
+        compact(X, members, solutions);
+    }
+
+    // Most tasks the executor can run at once, or Integer.MAX_VALUE when it does not say
+    private static int threadsOf(ExecutorService executor) {
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getParallelism();
+        }
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    // Training rows of a sub-problem: every row for one-vs-rest, the pair's rows for one-vs-one
+    private static int[] rowsOf(int[] encoded, int positive, int negative) {
+        if (negative < 0) {
+            return IntStream.range(0, encoded.length).toArray();
+        }
+        return IntStream.range(0, encoded.length).filter(i -> encoded[i] == positive || encoded[i] == negative).toArray();
+    }
+
+    // Pools the rows that are a support vector of any sub-model and points each sub-model's
+    // coefficients at the pool
+    private void compact(Dataset X, int[][] members, List<double[]> solutions) {
+        int nModels = solutions.size();
+        int[] poolIndex = new int[X.nRows()];
+        Arrays.fill(poolIndex, -1);
+        int nPool = 0;
+        support = new int[nModels][];
+        coef = new double[nModels][];
+        bias = new double[nModels];
+        for (int m = 0; m < nModels; m++) {
+            double[] solution = solutions.get(m);
+            int[] rows = members[m];
+            int nSupport = 0;
+            for (int i = 0; i < rows.length; i++) {
+                if (solution[i] != 0) nSupport++;
+            }
+            support[m] = new int[nSupport];
+            coef[m] = new double[nSupport];
+            int s = 0;
+            for (int i = 0; i < rows.length; i++) {
+                if (solution[i] == 0) continue;
+                if (poolIndex[rows[i]] < 0) poolIndex[rows[i]] = nPool++;
+                support[m][s] = poolIndex[rows[i]];
+                coef[m][s++] = solution[i];
+            }
+            bias[m] = solution[rows.length];
+        }
+
+        int[] poolRows = new int[nPool];
+        for (int r = 0; r < poolIndex.length; r++) {
+            if (poolIndex[r] >= 0) poolRows[poolIndex[r]] = r;
+        }
+        if (X instanceof CsrMatrix) {
+            supportVectors = ((CsrMatrix) X).select(poolRows);
+        } else {
+            double[][] dense = new double[nPool][X.nFeatures()];
+            for (int p = 0; p < nPool; p++) {
+                X.row(poolRows[p], dense[p], 0);
+            }
+            supportVectors = Dataset.of(dense);
+        }
+        svNorms = new double[nPool];
+        for (int p = 0; p < nPool; p++) {
+            svNorms[p] = supportVectors.squaredNorm(p);
+        }
+    }
+
+    // One decision value per sub-model, from a single sweep of kernel values over the pool
+    public double[] decisionFunction(double[] x) {
+        double[] values = new double[svNorms.length];
+        supportVectors.dots(x, values);
+        double xNorm = Kernel.dot(x, x);
+        for (int p = 0; p < values.length; p++) {
+            values[p] = kernel.compute(values[p], svNorms[p], xNorm);
+        }
+        double[] decisions = new double[coef.length];
+        for (int m = 0; m < coef.length; m++) {
+            double sum = bias[m];
+            for (int s = 0; s < coef[m].length; s++) {
+                sum += coef[m][s] * values[support[m][s]];
+            }
+            decisions[m] = sum;
+        }
+        return decisions;
+    }
+
+    // One-vs-rest takes the class with the largest decision value; one-vs-one takes the class
+    // with the most pairwise wins, ties going to the smaller label as in libsvm
+    public int predict(double[] x) {
+        double[] decisions = decisionFunction(x);
+        int best = 0;
+        if (strategy == Strategy.ONE_VS_REST) {
+            for (int m = 1; m < decisions.length; m++) {
+                if (decisions[m] > decisions[best]) best = m;
+            }
+            return classes[positive[best]];
+        }
+        int[] votes = new int[classes.length];
+        for (int m = 0; m < decisions.length; m++) {
+            votes[decisions[m] > 0 ? positive[m] : negative[m]]++;
+        }
+        for (int c = 1; c < votes.length; c++) {
+            if (votes[c] > votes[best]) best = c;
+        }
+        return classes[best];
+    }
+
+    public int[] predict(double[][] X) {
+        int[] predictions = new int[X.length];
+        IntStream rows = IntStream.range(0, X.length);
+        if (parallelism > 1 && X.length >= 1024) {
+            rows = rows.parallel();
+        }
+        rows.forEach(i -> predictions[i] = predict(X[i]));
+        return predictions;
+    }
+
+    public int[] classes() {
+        return classes.clone();
+    }
+
+    // Distinct training rows kept across all sub-models
+    public int supportVectorCount() {
+        return svNorms.length;
+    }
+
+    public static void main(String[] args) {
+        // Three Gaussian blobs
+        Random random = new Random(7);
+        double[][] centers = {{0, 0}, {4, 0}, {2, 3}};
+        double[][] X = new double[300][2];
+        int[] y = new int[300];
+        for (int i = 0; i < X.length; i++) {
+            y[i] = i % 3;
+            X[i][0] = centers[y[i]][0] + random.nextGaussian();
+            X[i][1] = centers[y[i]][1] + random.nextGaussian();
+        }
+        for (Strategy strategy : Strategy.values()) {
+            MulticlassSVM svm = new MulticlassSVM(1.0, 1e-3, 100, Kernel.rbf(0.5), strategy);
+            svm.fit(X, y);
+            int[] predictions = svm.predict(X);
+            int correct = 0;
+            for (int i = 0; i < y.length; i++) {
+                if (predictions[i] == y[i]) correct++;
+            }
+            System.out.println(strategy + ": training accuracy " + (100.0 * correct / y.length) + "%, "
+                    + svm.supportVectorCount() + " support vectors");
+        }
+    }
+}
@@ -1,82 +1,244 @@
-import java.util.Random;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 
 public class SVM {
+    // SMO works with any kernel. The dual coordinate descent solvers are for the linear kernel
+    // only, with hinge or squared hinge loss, and scale to millions of rows.
+    public enum Solver { SMO, DUAL_CD_HINGE, DUAL_CD_SQUARED_HINGE }
+
     private double C;
     private double tol;
     private int maxPasses;
-    private double[] alphas;
     private double b;
-    private double[][] X;
-    private double[] y;
-    private Random random;
+    private Kernel kernel;
+    private int cacheSizeMb = 100;
+    private boolean shrinking = true;
+    private Solver solver = Solver.SMO;
+    private Long seed;
+    private boolean warmStart;
+    // Multipliers of the last fit and the C they were found for, kept while warm starting
+    private double[] warmAlphas;
+    private double warmC;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private TrainingListener listener;
+    private long maxIterations;
+    private long timeLimitMillis;
+    private double gapTolerance;
+    private long iterations;
+    private boolean converged;
+
+    // Fitted model: support vectors packed row after row with their alpha * y coefficients,
+    // or for the linear kernel just the primal weights w. A model fitted on a CsrMatrix keeps
+    // its support vectors sparse instead, so kernel sums cost non-zeros rather than nFeatures.
+    private int nFeatures;
+    // Rows with alpha > 0 in the last fit; kept apart from coef, which the linear kernel drops
+    private int nSupport;
+    private double[] supportVectors;
+    private CsrMatrix sparseSupportVectors;
+    private double[] coef;
+    private double[] svNorms;
+    private double[] w;
+    private final ThreadLocal<double[]> scratch = ThreadLocal.withInitial(() -> new double[0]);
 
     public SVM(double C, double tol, int maxPasses) {
         this.C = C;
         this.tol = tol;
         this.maxPasses = maxPasses;
-        this.random = new Random();
+        this.kernel = Kernel.linear();
+    }
+
+    public SVM(double C, double tol, int maxPasses, Kernel kernel) {
+        this(C, tol, maxPasses);
+        this.kernel = kernel;
+    }
+
+    // Memory budget for cached kernel rows during fit
+    public void setCacheSizeMb(int cacheSizeMb) {
+        this.cacheSizeMb = cacheSizeMb;
+    }
+
+    public void setShrinking(boolean shrinking) {
+        this.shrinking = shrinking;
+    }
+
+    // The dual coordinate descent solvers need the linear kernel and take maxPasses as a cap on
+    // epochs over the data; iterations() then counts coordinate steps
+    public void setSolver(Solver solver) {
+        this.solver = solver;
+    }
+
+    // Fixes the row order the coordinate descent solvers visit each epoch
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    // Threads used by the batch predict; 1 scores rows sequentially
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    // Hard cap on SMO steps; 0 keeps the default of maxPasses * max(rows, 1000)
+    public void setMaxIterations(long maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    // Wall-clock budget for fit; the model is built from wherever the solver got to. 0 disables
+    public void setTimeLimitMillis(long timeLimitMillis) {
+        this.timeLimitMillis = timeLimitMillis;
+    }
+
+    // Stops fit once the relative duality gap (P - D) / P drops below tolerance, checked every
+    // max(rows, 1000) steps; the KKT test against tol always applies. 0 disables
+    public void setGapTolerance(double gapTolerance) {
+        this.gapTolerance = gapTolerance;
+    }
+
+    public void setC(double C) {
+        this.C = C;
+    }
+
+    // Starts each fit from the previous fit's multipliers, scaled by the ratio of the new C to
+    // the old, which keeps them feasible. Meant for a path of nearby C values over the same
+    // rows and labels; a fit on a different number of rows starts from zero.
+    public void setWarmStart(boolean warmStart) {
+        this.warmStart = warmStart;
+        if (!warmStart) this.warmAlphas = null;
+    }
+
+    // The previous fit's multipliers for this C, or null when not warm starting
+    private double[] initialAlphas(int rows) {
+        if (!this.warmStart || this.warmAlphas == null || this.warmAlphas.length != rows) return null;
+        double[] initial = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            initial[i] = this.warmAlphas[i] * this.C / this.warmC;
+        }
+        return initial;
+    }
+
+    private void keepAlphas(double[] alphas) {
+        if (!this.warmStart) return;
+        this.warmAlphas = alphas;
+        this.warmC = this.C;
+    }
+
+    // Receives passCompleted as the solver runs
+    public void setListener(TrainingListener listener) {
+        this.listener = listener;
     }
 
     public void fit(double[][] X, double[] y) {
-        int m = X.length;
-        int n = X[0].length;
-        this.alphas = new double[m];
-        this.b = 0;
-        this.X = X;
-        this.y = y;
-        int passes = 0;
-
-        while (passes < this.maxPasses) {
-            int numChangedAlphas = 0;
-            for (int i = 0; i < m; i++) {
-                double Ei = decisionFunction(X[i]) - y[i];
-                if ((y[i] * Ei < -this.tol && this.alphas[i] < this.C) || (y[i] * Ei > this.tol && this.alphas[i] > 0)) {
-                    int j = selectJ(i, m);
-                    double Ej = decisionFunction(X[j]) - y[j];
-
-                    double oldAlphaI = this.alphas[i];
-                    double oldAlphaJ = this.alphas[j];
-
-                    double L, H;
-                    if (y[i] != y[j]) {
-                        L = Math.max(0, this.alphas[j] - this.alphas[i]);
-                        H = Math.min(this.C, this.C + this.alphas[j] - this.alphas[i]);
-                    } else {
-                        L = Math.max(0, this.alphas[i] + this.alphas[j] - this.C);
-                        H = Math.min(this.C, this.alphas[i] + this.alphas[j]);
-                    }
-
-                    if (L == H) continue;
-
-                    double eta = 2.0 * kernel(X[i], X[j]) - kernel(X[i], X[i]) - kernel(X[j], X[j]);
-                    if (eta >= 0) continue;
-
-                    this.alphas[j] -= y[j] * (Ei - Ej) / eta;
-                    this.alphas[j] = clipAlpha(this.alphas[j], H, L);
-
-                    if (Math.abs(this.alphas[j] - oldAlphaJ) < 1e-5) continue;
-
-                    this.alphas[i] += y[i] * y[j] * (oldAlphaJ - this.alphas[j]);
-
-                    double b1 = this.b - Ei - y[i] * (this.alphas[i] - oldAlphaI) * kernel(X[i], X[i]) - y[j] * (this.alphas[j] - oldAlphaJ) * kernel(X[i], X[j]);
-                    double b2 = this.b - Ej - y[i] * (this.alphas[i] - oldAlphaI) * kernel(X[i], X[j]) - y[j] * (this.alphas[j] - oldAlphaJ) * kernel(X[j], X[j]);
-
-                    if (0 < this.alphas[i] && this.alphas[i] < this.C) {
-                        this.b = b1;
-                    } else if (0 < this.alphas[j] && this.alphas[j] < this.C) {
-                        this.b = b2;
-                    } else {
-                        this.b = (b1 + b2) / 2.0;
-                    }
-
-                    numChangedAlphas++;
-                }
+        fit(Dataset.of(X), y);
+    }
+
+    // Kernel rows are computed from X one Dataset.dots sweep at a time, so X may be memory-mapped
+    public void fit(Dataset X, double[] y) {
+        if (this.solver != Solver.SMO) {
+            fitLinear(X, y);
+            return;
+        }
+        int m = X.nRows();
+
+        // maxPasses bounds the work at that many sweeps' worth of SMO steps
+        long maxIter = this.maxIterations > 0 ? this.maxIterations : (long) this.maxPasses * Math.max(m, 1000);
+        KernelCache cache = new KernelCache(X, this.kernel, this.cacheSizeMb * 1024L * 1024L);
+        SmoSolver solver = new SmoSolver(cache, y, this.C, this.tol, maxIter, this.shrinking);
+        solver.setListener(this.listener);
+        solver.setTimeLimit(this.timeLimitMillis * 1_000_000L);
+        solver.setGapTolerance(this.gapTolerance);
+        solver.setInitialAlphas(initialAlphas(m));
+        solver.solve();
+        this.iterations = solver.iterations();
+        this.converged = solver.converged();
+        this.b = solver.bias();
+        keepAlphas(solver.alphas());
+        compact(X, y, solver.alphas());
+    }
+
+    private void fitLinear(Dataset X, double[] y) {
+        if (!(this.kernel instanceof Kernel.Linear)) {
+            throw new IllegalStateException(this.solver + " needs the linear kernel");
+        }
+        long maxIter = this.maxIterations > 0 ? this.maxIterations : (long) this.maxPasses * X.nRows();
+        SplittableRandom random = this.seed == null ? new SplittableRandom() : new SplittableRandom(this.seed);
+        LinearSolver solver = new LinearSolver(X, y, this.C, this.solver == Solver.DUAL_CD_SQUARED_HINGE,
+                this.tol, maxIter, this.shrinking, random);
+        solver.setListener(this.listener);
+        solver.setTimeLimit(this.timeLimitMillis * 1_000_000L);
+        solver.setGapTolerance(this.gapTolerance);
+        solver.setInitialAlphas(initialAlphas(X.nRows()));
+        solver.solve();
+        this.iterations = solver.iterations();
+        this.converged = solver.converged();
+        this.b = solver.bias();
+        keepAlphas(solver.alphas());
+        this.nFeatures = X.nFeatures();
+        this.nSupport = 0;
+        for (double alpha : solver.alphas()) {
+            if (alpha > 0) this.nSupport++;
+        }
+        this.w = solver.weights();
+        this.coef = new double[0];
+        this.supportVectors = new double[0];
+        this.sparseSupportVectors = null;
+        this.svNorms = null;
+    }
+
+    // Keeps only rows with alpha > 0, so the training matrix can be collected after fit
+    private void compact(Dataset X, double[] y, double[] alphas) {
+        this.nFeatures = X.nFeatures();
+        int nSupport = 0;
+        for (double alpha : alphas) {
+            if (alpha > 0) nSupport++;
+        }
+        this.nSupport = nSupport;
+
+        this.coef = new double[nSupport];
+        int[] support = new int[nSupport];
+        int k = 0;
+        for (int i = 0; i < alphas.length; i++) {
+            if (alphas[i] > 0) {
+                this.coef[k] = alphas[i] * y[i];
+                support[k] = i;
+                k++;
             }
+        }
+        if (X instanceof CsrMatrix) {
+            this.sparseSupportVectors = ((CsrMatrix) X).select(support);
+            this.supportVectors = null;
+        } else {
+            this.sparseSupportVectors = null;
+            this.supportVectors = new double[nSupport * this.nFeatures];
+            for (int i = 0; i < nSupport; i++) {
+                X.row(support[i], this.supportVectors, i * this.nFeatures);
+            }
+        }
 
-            if (numChangedAlphas == 0) {
-                passes++;
-            } else {
-                passes = 0;
+        this.w = null;
+        this.svNorms = null;
+        if (this.kernel instanceof Kernel.Linear) {
+            this.w = new double[this.nFeatures];
+            for (int i = 0; i < nSupport; i++) {
+                if (this.sparseSupportVectors != null) {
+                    this.sparseSupportVectors.addTo(i, this.coef[i], this.w, 0);
+                    continue;
+                }
+                for (int f = 0; f < this.nFeatures; f++) {
+                    this.w[f] += this.coef[i] * this.supportVectors[i * this.nFeatures + f];
+                }
+            }
+            this.supportVectors = new double[0];
+            this.sparseSupportVectors = null;
+            this.coef = new double[0];
+        } else if (this.kernel.usesNorms()) {
+            this.svNorms = new double[nSupport];
+            for (int i = 0; i < nSupport; i++) {
+                this.svNorms[i] = this.sparseSupportVectors != null ? this.sparseSupportVectors.squaredNorm(i)
+                        : Kernel.dot(this.supportVectors, i * this.nFeatures, this.supportVectors, i * this.nFeatures, this.nFeatures);
             }
         }
     }
@@ -85,38 +247,192 @@ public class SVM {
         return Math.signum(decisionFunction(X));
     }
 
-    private double decisionFunction(double[] X) {
-        double result = 0;
-        for (int i = 0; i < this.X.length; i++) {
-            result += this.alphas[i] * this.y[i] * kernel(this.X[i], X);
+    public double[] predict(double[][] X) {
+        double[] predictions = new double[X.length];
+        IntStream rows = IntStream.range(0, X.length);
+        if (this.parallelism > 1 && X.length >= 1024) {
+            rows = rows.parallel();
         }
-        return result + this.b;
+        rows.forEach(i -> predictions[i] = predict(X[i]));
+        return predictions;
     }
 
-    private double kernel(double[] x1, double[] x2) {
-        double sum = 0;
-        for (int i = 0; i < x1.length; i++) {
-            sum += x1[i] * x2[i];
+    // Rows of a CsrMatrix are scored in sparse form; other datasets are read a row at a time
+    public double[] predict(Dataset X) {
+        double[] predictions = new double[X.nRows()];
+        IntStream rows = IntStream.range(0, X.nRows());
+        if (this.parallelism > 1 && X.nRows() >= 1024) {
+            rows = rows.parallel();
+        }
+        if (X instanceof CsrMatrix) {
+            CsrMatrix sparse = (CsrMatrix) X;
+            rows.forEach(i -> predictions[i] = Math.signum(decisionFunction(sparse, i)));
+        } else {
+            rows.forEach(i -> {
+                double[] row = scratch(X.nFeatures());
+                X.row(i, row, 0);
+                predictions[i] = predict(row);
+                Arrays.fill(row, 0, X.nFeatures(), 0);
+            });
         }
-        return sum;
+        return predictions;
     }
 
-    private int selectJ(int i, int m) {
-        int j = i;
-        while (j == i) {
-            j = this.random.nextInt(m);
+    // This thread's dense buffer of at least n values, all zero when used for sparse rows
+    private double[] scratch(int n) {
+        double[] buffer = this.scratch.get();
+        if (buffer.length < n) {
+            buffer = new double[n];
+            this.scratch.set(buffer);
         }
-        return j;
+        return buffer;
+    }
+
+    // Width of the rows the model was trained on
+    public int nFeatures() {
+        return this.nFeatures;
     }
 
-    private double clipAlpha(double alpha, double H, double L) {
-        if (alpha > H) {
-            return H;
-        } else if (alpha < L) {
-            return L;
+    // Training rows with a non-zero multiplier, also for a linear model that keeps only w
+    public int supportVectorCount() {
+        return this.nSupport;
+    }
+
+    // SMO steps taken by the last fit
+    public long iterations() {
+        return this.iterations;
+    }
+
+    // Whether the last fit met its tolerance rather than running out of iterations or time
+    public boolean converged() {
+        return this.converged;
+    }
+
+    // Payload layout: ints {kernel, degree, nFeatures, nStored, hasNorms, hasW, maxPasses, supportCount},
+    // doubles {gamma, coef0, C, tol, b}, then coef, svNorms, supportVectors and w as present.
+    // nStored counts the stored coef and support vectors, 0 when only w is kept;
+    // supportCount is supportVectorCount() either way.
+    public void save(Path path) throws IOException {
+        if (this.coef == null) {
+            throw new IllegalStateException("SVM has not been fitted");
+        }
+        int kernelType;
+        double gamma = 0;
+        double coef0 = 0;
+        int degree = 0;
+        if (this.kernel instanceof Kernel.Linear) {
+            kernelType = 0;
+        } else if (this.kernel instanceof Kernel.Rbf) {
+            kernelType = 1;
+            gamma = ((Kernel.Rbf) this.kernel).gamma;
+        } else if (this.kernel instanceof Kernel.Polynomial) {
+            Kernel.Polynomial polynomial = (Kernel.Polynomial) this.kernel;
+            kernelType = 2;
+            gamma = polynomial.gamma;
+            coef0 = polynomial.coef0;
+            degree = polynomial.degree;
+        } else if (this.kernel instanceof Kernel.Sigmoid) {
+            Kernel.Sigmoid sigmoid = (Kernel.Sigmoid) this.kernel;
+            kernelType = 3;
+            gamma = sigmoid.gamma;
+            coef0 = sigmoid.coef0;
+        } else {
+            throw new IllegalStateException("Cannot save a custom kernel: " + this.kernel.getClass().getName());
+        }
+
+        int nStored = this.coef.length;
+        long doubles = 5 + nStored + (long) (this.w == null ? nStored : 0) * this.nFeatures
+                + (this.svNorms == null ? 0 : nStored) + (this.w == null ? 0 : this.nFeatures);
+        MappedByteBuffer buffer = ModelFile.create(path, ModelFile.SVM, 32 + doubles * Double.BYTES);
+        buffer.putInt(kernelType).putInt(degree).putInt(this.nFeatures).putInt(nStored)
+                .putInt(this.svNorms == null ? 0 : 1).putInt(this.w == null ? 0 : 1).putInt(this.maxPasses).putInt(this.nSupport);
+        buffer.putDouble(gamma).putDouble(coef0).putDouble(this.C).putDouble(this.tol).putDouble(this.b);
+        ModelFile.putDoubles(buffer, this.coef);
+        if (this.svNorms != null) ModelFile.putDoubles(buffer, this.svNorms);
+        if (this.sparseSupportVectors != null) {
+            // The file format is dense; a sparse model loads back with dense support vectors
+            double[] row = new double[this.nFeatures];
+            for (int i = 0; i < nStored; i++) {
+                this.sparseSupportVectors.row(i, row, 0);
+                ModelFile.putDoubles(buffer, row);
+            }
         } else {
-            return alpha;
+            ModelFile.putDoubles(buffer, this.supportVectors);
+        }
+        if (this.w != null) ModelFile.putDoubles(buffer, this.w);
+        buffer.force();
+    }
+
+    // Support vectors are bulk-copied out of the mapping, as the kernel sums run over flat arrays
+    public static SVM load(Path path) throws IOException {
+        ByteBuffer buffer = ModelFile.open(path, ModelFile.SVM);
+        int kernelType = buffer.getInt();
+        int degree = buffer.getInt();
+        int nFeatures = buffer.getInt();
+        int nStored = buffer.getInt();
+        boolean hasNorms = buffer.getInt() != 0;
+        boolean hasW = buffer.getInt() != 0;
+        int maxPasses = buffer.getInt();
+        int supportCount = buffer.getInt();
+        double gamma = buffer.getDouble();
+        double coef0 = buffer.getDouble();
+        double C = buffer.getDouble();
+        double tol = buffer.getDouble();
+
+        Kernel kernel;
+        switch (kernelType) {
+            case 0: kernel = Kernel.linear(); break;
+            case 1: kernel = Kernel.rbf(gamma); break;
+            case 2: kernel = Kernel.polynomial(gamma, coef0, degree); break;
+            case 3: kernel = Kernel.sigmoid(gamma, coef0); break;
+            default: throw new IOException("Unknown kernel type " + kernelType + ": " + path);
+        }
+        SVM svm = new SVM(C, tol, maxPasses, kernel);
+        svm.b = buffer.getDouble();
+        svm.nFeatures = nFeatures;
+        svm.nSupport = supportCount;
+        svm.coef = ModelFile.getDoubles(buffer, nStored);
+        svm.svNorms = hasNorms ? ModelFile.getDoubles(buffer, nStored) : null;
+        svm.supportVectors = ModelFile.getDoubles(buffer, nStored * nFeatures);
+        svm.w = hasW ? ModelFile.getDoubles(buffer, nFeatures) : null;
+        return svm;
+    }
+
+    private double decisionFunction(double[] X) {
+        if (this.w != null) {
+            return Kernel.dot(this.w, X) + this.b;
         }
+        double xNorm = this.svNorms == null ? 0 : Kernel.dot(X, X);
+        double result = 0;
+        for (int i = 0; i < this.coef.length; i++) {
+            double dot = this.sparseSupportVectors != null ? this.sparseSupportVectors.dot(i, X, 0)
+                    : Kernel.dot(this.supportVectors, i * this.nFeatures, X, 0, this.nFeatures);
+            result += this.coef[i] * this.kernel.compute(dot, this.svNorms == null ? 0 : this.svNorms[i], xNorm);
+        }
+        return result + this.b;
+    }
+
+    // Decision value of row r of X, touching only its stored entries: dense support vectors
+    // are dotted through the row's indices, sparse ones against the row scattered into scratch
+    private double decisionFunction(CsrMatrix X, int r) {
+        if (this.w != null) {
+            return X.dot(r, this.w, 0) + this.b;
+        }
+        double xNorm = this.svNorms == null ? 0 : X.squaredNorm(r);
+        double[] dense = null;
+        if (this.sparseSupportVectors != null) {
+            dense = scratch(this.nFeatures);
+            X.addTo(r, 1, dense, 0);
+        }
+        double result = 0;
+        for (int i = 0; i < this.coef.length; i++) {
+            double dot = dense != null ? this.sparseSupportVectors.dot(i, dense, 0) : X.dot(r, this.supportVectors, i * this.nFeatures);
+            result += this.coef[i] * this.kernel.compute(dot, this.svNorms == null ? 0 : this.svNorms[i], xNorm);
+        }
+        if (dense != null) {
+            X.clear(r, dense, 0);
+        }
+        return result + this.b;
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,438 @@
+import java.util.Arrays;
+
+// Sequential minimal optimization for the SVM dual
+//     min 0.5 a'Qa - e'a   subject to 0 <= a <= C, y'a = 0,   Q[i][j] = y[i] y[j] K(x[i], x[j])
+// following libsvm: second-order working set selection, a maintained gradient G = Qa - e
+// (the error cache, since y[i] G[i] = f(x[i]) - b - y[i]), and shrinking of bounded variables.
+class SmoSolver {
+    private static final double TAU = 1e-12;
+
+    private final KernelMatrix cache;
+    private final double[] y;
+    private final double C;
+    private final double eps;
+    private final long maxIter;
+    private final boolean shrinking;
+
+    private final int l;
+    private final double[] alpha;
+    private final double[] G;
+    // Gradient contribution of the variables at the upper bound, used to rebuild G after unshrinking
+    private final double[] Gbar;
+    private final int[] active;
+    private int activeSize;
+    private boolean unshrink;
+    private long iterations;
+    private boolean converged;
+    private long timeLimitNanos;
+    private double gapTolerance;
+    private double[] initialAlpha;
+
+    // Progress reporting, only tracked while a listener is set
+    private TrainingListener listener;
+    private long startNanos;
+    private int pass;
+    private int changedInPass;
+    private int[] lastChangedPass;
+    private double violation = Double.POSITIVE_INFINITY;
+
+    SmoSolver(KernelMatrix cache, double[] y, double C, double eps, long maxIter, boolean shrinking) {
+        this.cache = cache;
+        this.y = y;
+        this.C = C;
+        this.eps = eps;
+        this.maxIter = maxIter;
+        this.shrinking = shrinking;
+        this.l = y.length;
+        this.alpha = new double[l];
+        this.G = new double[l];
+        this.Gbar = new double[l];
+        this.active = new int[l];
+    }
+
+    // Reports a pass every max(l, 1000) steps, the same unit SVM uses for maxPasses
+    void setListener(TrainingListener listener) {
+        this.listener = listener;
+    }
+
+    // Stops solve after this long even if not converged; 0 means no limit
+    void setTimeLimit(long nanos) {
+        this.timeLimitNanos = nanos;
+    }
+
+    // Also stops once the relative duality gap, checked every pass, falls below tolerance
+    void setGapTolerance(double tolerance) {
+        this.gapTolerance = tolerance;
+    }
+
+    // Starts from these multipliers instead of zero; they must satisfy y'a = 0 within [0, C]
+    void setInitialAlphas(double[] initialAlpha) {
+        this.initialAlpha = initialAlpha;
+    }
+
+    void solve() {
+        startNanos = System.nanoTime();
+        long passLength = Math.max(l, 1000);
+        if (listener != null) {
+            lastChangedPass = new int[l];
+            Arrays.fill(lastChangedPass, -1);
+        }
+        for (int t = 0; t < l; t++) {
+            G[t] = -1;
+            active[t] = t;
+        }
+        if (initialAlpha != null) {
+            // G = Qa - e and Gbar from the starting point, one kernel row per non-zero alpha
+            for (int j = 0; j < l; j++) {
+                alpha[j] = Math.min(Math.max(initialAlpha[j], 0), C);
+                if (alpha[j] == 0) continue;
+                double[] Kj = cache.row(j);
+                for (int t = 0; t < l; t++) {
+                    G[t] += alpha[j] * y[j] * y[t] * Kj[t];
+                    if (isUpperBound(j)) Gbar[t] += C * y[j] * y[t] * Kj[t];
+                }
+            }
+        }
+        activeSize = l;
+        unshrink = false;
+
+        int counter = Math.min(l, 1000) + 1;
+        while (iterations < maxIter) {
+            if (--counter == 0) {
+                counter = Math.min(l, 1000);
+                if (shrinking) shrink();
+            }
+
+            int[] pair = selectWorkingSet();
+            if (pair == null) {
+                // Converged on the active set; check again on the whole problem
+                converged = activeSize == l;
+                if (converged) break;
+                reconstructGradient();
+                activeSize = l;
+                resetActive();
+                pair = selectWorkingSet();
+                converged = pair == null;
+                if (converged) break;
+                counter = 1;
+            }
+
+            iterations++;
+            update(pair[0], pair[1]);
+            if (iterations % passLength == 0) {
+                if (listener != null) reportPass();
+                if (gapTolerance > 0 && relativeGap() < gapTolerance) {
+                    converged = true;
+                    break;
+                }
+            }
+            if (timeLimitNanos > 0 && (iterations & 1023) == 0 && System.nanoTime() - startNanos > timeLimitNanos) {
+                break;
+            }
+        }
+
+        if (activeSize < l) {
+            reconstructGradient();
+            activeSize = l;
+            resetActive();
+        }
+        if (listener != null) {
+            reportPass();
+        }
+    }
+
+    private void reportPass() {
+        listener.passCompleted(pass, iterations, changedInPass, objective(), violation, System.nanoTime() - startNanos);
+        pass++;
+        changedInPass = 0;
+    }
+
+    private void markChanged(int i) {
+        if (lastChangedPass[i] != pass) {
+            lastChangedPass[i] = pass;
+            changedInPass++;
+        }
+    }
+
+    // (P - D) / P for the primal P = 0.5 a'Qa + C sum hinge(y f(x)) and dual D = e'a - 0.5 a'Qa.
+    // Since y[i] f(x[i]) = G[i] + 1 + y[i] b, the gap is a'G + C sum max(0, -G[i] - y[i] b).
+    // Needs the full gradient, so it unshrinks first; shrinking resumes on its next round.
+    private double relativeGap() {
+        if (activeSize < l) {
+            reconstructGradient();
+            activeSize = l;
+            resetActive();
+        }
+        double b = bias();
+        double aG = 0;
+        double aQa = 0;
+        double hinge = 0;
+        for (int t = 0; t < l; t++) {
+            aG += alpha[t] * G[t];
+            aQa += alpha[t] * (G[t] + 1);
+            hinge += Math.max(0, -G[t] - y[t] * b);
+        }
+        double primal = 0.5 * aQa + C * hinge;
+        return (aG + C * hinge) / Math.max(primal, 1e-12);
+    }
+
+    // 0.5 a'Qa - e'a, which is 0.5 a'(G - e) since G = Qa - e
+    private double objective() {
+        double sum = 0;
+        for (int t = 0; t < l; t++) {
+            sum += alpha[t] * (G[t] - 1);
+        }
+        return sum / 2;
+    }
+
+    private void update(int i, int j) {
+        double[] Ki = cache.row(i);
+        double[] Kj = cache.row(j);
+        double Kij = Ki[j];
+        double oldAi = alpha[i];
+        double oldAj = alpha[j];
+        double quad = cache.diag(i) + cache.diag(j) - 2 * Kij;
+        if (quad <= 0) quad = TAU;
+
+        if (y[i] != y[j]) {
+            double delta = (-G[i] - G[j]) / quad;
+            double diff = alpha[i] - alpha[j];
+            alpha[i] += delta;
+            alpha[j] += delta;
+            if (diff > 0) {
+                if (alpha[j] < 0) {
+                    alpha[j] = 0;
+                    alpha[i] = diff;
+                }
+            } else if (alpha[i] < 0) {
+                alpha[i] = 0;
+                alpha[j] = -diff;
+            }
+            if (diff > 0) {
+                if (alpha[i] > C) {
+                    alpha[i] = C;
+                    alpha[j] = C - diff;
+                }
+            } else if (alpha[j] > C) {
+                alpha[j] = C;
+                alpha[i] = C + diff;
+            }
+        } else {
+            double delta = (G[i] - G[j]) / quad;
+            double sum = alpha[i] + alpha[j];
+            alpha[i] -= delta;
+            alpha[j] += delta;
+            if (sum > C) {
+                if (alpha[i] > C) {
+                    alpha[i] = C;
+                    alpha[j] = sum - C;
+                }
+            } else if (alpha[j] < 0) {
+                alpha[j] = 0;
+                alpha[i] = sum;
+            }
+            if (sum > C) {
+                if (alpha[j] > C) {
+                    alpha[j] = C;
+                    alpha[i] = sum - C;
+                }
+            } else if (alpha[i] < 0) {
+                alpha[i] = 0;
+                alpha[j] = sum;
+            }
+        }
+
+        double dAi = alpha[i] - oldAi;
+        double dAj = alpha[j] - oldAj;
+        if (listener != null) {
+            if (dAi != 0) markChanged(i);
+            if (dAj != 0) markChanged(j);
+        }
+        for (int k = 0; k < activeSize; k++) {
+            int t = active[k];
+            G[t] += y[t] * (y[i] * Ki[t] * dAi + y[j] * Kj[t] * dAj);
+        }
+
+        updateGbar(i, oldAi, Ki);
+        updateGbar(j, oldAj, Kj);
+    }
+
+    private void updateGbar(int i, double oldAlpha, double[] Ki) {
+        boolean wasUpper = oldAlpha >= C;
+        if (wasUpper == isUpperBound(i)) return;
+        double scale = wasUpper ? -C : C;
+        for (int t = 0; t < l; t++) {
+            Gbar[t] += scale * y[i] * y[t] * Ki[t];
+        }
+    }
+
+    // Returns the maximal violating pair chosen by second-order gain, or null once the
+    // largest KKT violation is below eps
+    private int[] selectWorkingSet() {
+        double gMax = Double.NEGATIVE_INFINITY;
+        double gMax2 = Double.NEGATIVE_INFINITY;
+        int gMaxIdx = -1;
+        int gMinIdx = -1;
+        double objDiffMin = Double.POSITIVE_INFINITY;
+
+        for (int k = 0; k < activeSize; k++) {
+            int t = active[k];
+            if (y[t] > 0) {
+                if (!isUpperBound(t) && -G[t] >= gMax) {
+                    gMax = -G[t];
+                    gMaxIdx = t;
+                }
+            } else if (!isLowerBound(t) && G[t] >= gMax) {
+                gMax = G[t];
+                gMaxIdx = t;
+            }
+        }
+        if (gMaxIdx < 0) return null;
+
+        int i = gMaxIdx;
+        double[] Ki = cache.row(i);
+        double Kii = cache.diag(i);
+        for (int k = 0; k < activeSize; k++) {
+            int j = active[k];
+            double gradDiff;
+            if (y[j] > 0) {
+                if (isLowerBound(j)) continue;
+                gradDiff = gMax + G[j];
+                if (G[j] >= gMax2) gMax2 = G[j];
+            } else {
+                if (isUpperBound(j)) continue;
+                gradDiff = gMax - G[j];
+                if (-G[j] >= gMax2) gMax2 = -G[j];
+            }
+            if (gradDiff > 0) {
+                double quad = Kii + cache.diag(j) - 2 * Ki[j];
+                double objDiff = -(gradDiff * gradDiff) / (quad > 0 ? quad : TAU);
+                if (objDiff <= objDiffMin) {
+                    gMinIdx = j;
+                    objDiffMin = objDiff;
+                }
+            }
+        }
+
+        violation = gMax + gMax2;
+        if (gMax + gMax2 < eps || gMinIdx < 0) return null;
+        return new int[]{i, gMinIdx};
+    }
+
+    private void shrink() {
+        double gMax1 = Double.NEGATIVE_INFINITY;
+        double gMax2 = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < activeSize; k++) {
+            int t = active[k];
+            if (y[t] > 0) {
+                if (!isUpperBound(t)) gMax1 = Math.max(gMax1, -G[t]);
+                if (!isLowerBound(t)) gMax2 = Math.max(gMax2, G[t]);
+            } else {
+                if (!isUpperBound(t)) gMax2 = Math.max(gMax2, -G[t]);
+                if (!isLowerBound(t)) gMax1 = Math.max(gMax1, G[t]);
+            }
+        }
+
+        if (!unshrink && gMax1 + gMax2 <= eps * 10) {
+            unshrink = true;
+            reconstructGradient();
+            activeSize = l;
+            resetActive();
+        }
+
+        int k = 0;
+        while (k < activeSize) {
+            if (beShrunk(active[k], gMax1, gMax2)) {
+                activeSize--;
+                int tmp = active[k];
+                active[k] = active[activeSize];
+                active[activeSize] = tmp;
+            } else {
+                k++;
+            }
+        }
+    }
+
+    private boolean beShrunk(int t, double gMax1, double gMax2) {
+        if (isUpperBound(t)) {
+            return y[t] > 0 ? -G[t] > gMax1 : -G[t] > gMax2;
+        } else if (isLowerBound(t)) {
+            return y[t] > 0 ? G[t] > gMax2 : G[t] > gMax1;
+        }
+        return false;
+    }
+
+    // Recomputes G for the shrunk variables from Gbar and the free variables
+    private void reconstructGradient() {
+        if (activeSize == l) return;
+        boolean[] isActive = new boolean[l];
+        for (int k = 0; k < activeSize; k++) {
+            isActive[active[k]] = true;
+        }
+        for (int t = 0; t < l; t++) {
+            if (!isActive[t]) G[t] = Gbar[t] - 1;
+        }
+        for (int j = 0; j < l; j++) {
+            if (isFree(j)) {
+                double[] Kj = cache.row(j);
+                for (int t = 0; t < l; t++) {
+                    if (!isActive[t]) G[t] += alpha[j] * y[j] * y[t] * Kj[t];
+                }
+            }
+        }
+    }
+
+    private void resetActive() {
+        for (int t = 0; t < l; t++) {
+            active[t] = t;
+        }
+    }
+
+    // The offset b of f(x) = sum a[i] y[i] K(x[i], x) + b
+    double bias() {
+        double ub = Double.POSITIVE_INFINITY;
+        double lb = Double.NEGATIVE_INFINITY;
+        int nFree = 0;
+        double sumFree = 0;
+        for (int t = 0; t < l; t++) {
+            double yG = y[t] * G[t];
+            if (isUpperBound(t)) {
+                if (y[t] < 0) ub = Math.min(ub, yG);
+                else lb = Math.max(lb, yG);
+            } else if (isLowerBound(t)) {
+                if (y[t] > 0) ub = Math.min(ub, yG);
+                else lb = Math.max(lb, yG);
+            } else {
+                nFree++;
+                sumFree += yG;
+            }
+        }
+        double rho = nFree > 0 ? sumFree / nFree : (ub + lb) / 2;
+        return -rho;
+    }
+
+    double[] alphas() {
+        return alpha;
+    }
+
+    long iterations() {
+        return iterations;
+    }
+
+    // Whether solve stopped on tol or the gap tolerance rather than a budget
+    boolean converged() {
+        return converged;
+    }
+
+    private boolean isUpperBound(int t) {
+        return alpha[t] >= C;
+    }
+
+    private boolean isLowerBound(int t) {
+        return alpha[t] <= 0;
+    }
+
+    private boolean isFree(int t) {
+        return !isUpperBound(t) && !isLowerBound(t);
+    }
+}
@@ -0,0 +1,46 @@
+// Scores a batch of rows at once, one output vector per row. The factories adapt each model's
+// batch predict; any of them is safe to call from several threads at once.
+public interface Scorer {
+    double[][] score(double[][] rows);
+
+    // Width every row must have; 0 when the scorer checks its input itself
+    default int nFeatures() {
+        return 0;
+    }
+
+    // Class probabilities, in the forest's class order
+    static Scorer of(RandomForest forest) {
+        return of(forest.nFeatures(), forest::predictProba);
+    }
+
+    // The predicted sign, -1 or 1, as a single output
+    static Scorer of(SVM svm) {
+        return of(svm.nFeatures(), rows -> {
+            double[] predictions = svm.predict(rows);
+            double[][] outputs = new double[rows.length][];
+            for (int i = 0; i < rows.length; i++) {
+                outputs[i] = new double[]{predictions[i]};
+            }
+            return outputs;
+        });
+    }
+
+    // The output layer's activations
+    static Scorer of(MLP mlp) {
+        return of(mlp.inputSize(), rows -> mlp.predict(Dataset.of(rows)));
+    }
+
+    private static Scorer of(int nFeatures, Scorer scorer) {
+        return new Scorer() {
+            @Override
+            public double[][] score(double[][] rows) {
+                return scorer.score(rows);
+            }
+
+            @Override
+            public int nFeatures() {
+                return nFeatures;
+            }
+        };
+    }
+}
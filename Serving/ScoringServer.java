@@ -0,0 +1,160 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Local HTTP front end for a ScoringService, on the JDK's built-in server:
+//     POST /score    one row per line, values separated by commas; answers one line of
+//                    comma-separated outputs per row, in order
+//     GET  /metrics  requests scored, p50/p90/p99 latency and the batch size histogram
+// Each row is submitted on its own, so rows from concurrent requests share batches. Requests
+// are handled on a cached thread pool; on JDK 21 Executors.newVirtualThreadPerTaskExecutor()
+// can be passed in instead, since handlers spend their time blocked on the service.
+public class ScoringServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    // Whether close should shut executor down; false when the caller passed it in
+    private final boolean ownsExecutor;
+    private final ScoringService service;
+
+    public ScoringServer(ScoringService service, int port) throws IOException {
+        this(service, port, Executors.newCachedThreadPool(), true);
+    }
+
+    // Handles requests on the caller's executor, which close leaves running
+    public ScoringServer(ScoringService service, int port, ExecutorService executor) throws IOException {
+        this(service, port, executor, false);
+    }
+
+    private ScoringServer(ScoringService service, int port, ExecutorService executor, boolean ownsExecutor) throws IOException {
+        this.service = service;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/score", this::score);
+        this.server.createContext("/metrics", this::metrics);
+        this.server.start();
+    }
+
+    // The bound port, useful when constructed with port 0
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void score(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Use POST\n");
+            return;
+        }
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        // The whole request is parsed and checked before any row is submitted, so a bad row
+        // is answered with 400 and never reaches a batch
+        List<double[]> rows = new ArrayList<>();
+        int nFeatures = service.nFeatures();
+        try {
+            for (String line : body.split("\n")) {
+                if (line.isBlank()) continue;
+                String[] fields = line.split(",");
+                double[] row = new double[fields.length];
+                for (int f = 0; f < fields.length; f++) {
+                    row[f] = Double.parseDouble(fields[f].trim());
+                }
+                if (nFeatures > 0 && row.length != nFeatures) {
+                    respond(exchange, 400, "Row " + (rows.size() + 1) + " has " + row.length + " values, expected " + nFeatures + "\n");
+                    return;
+                }
+                rows.add(row);
+            }
+        } catch (NumberFormatException e) {
+            respond(exchange, 400, "Bad number: " + e.getMessage() + "\n");
+            return;
+        }
+        List<CompletableFuture<double[]>> results = new ArrayList<>();
+        for (double[] row : rows) {
+            results.add(service.submit(row));
+        }
+
+        StringBuilder out = new StringBuilder();
+        try {
+            for (CompletableFuture<double[]> result : results) {
+                double[] outputs = result.join();
+                for (int k = 0; k < outputs.length; k++) {
+                    if (k > 0) out.append(',');
+                    out.append(outputs[k]);
+                }
+                out.append('\n');
+            }
+        } catch (RuntimeException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            // A swapped-in model of another width rejects the row the same way as above
+            respond(exchange, cause instanceof IllegalArgumentException ? 400 : 500, cause + "\n");
+            return;
+        }
+        respond(exchange, 200, out.toString());
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        StringBuilder out = new StringBuilder();
+        out.append("requests ").append(service.requestsScored()).append('\n');
+        out.append("latency_p50_us ").append(service.latencyPercentileMicros(0.50)).append('\n');
+        out.append("latency_p90_us ").append(service.latencyPercentileMicros(0.90)).append('\n');
+        out.append("latency_p99_us ").append(service.latencyPercentileMicros(0.99)).append('\n');
+        long[] batches = service.batchSizeHistogram();
+        for (int k = 1; k < batches.length; k++) {
+            if (batches[k] > 0) out.append("batch_size{size=\"").append(k).append("\"} ").append(batches[k]).append('\n');
+        }
+        respond(exchange, 200, out.toString());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(bytes);
+        }
+    }
+
+    // Stops accepting connections and shuts down the handler pool if the server created it;
+    // the service stays open
+    @Override
+    public void close() {
+        server.stop(0);
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    // Serves an MLP trained on XOR, then scores it concurrently through the service
+    public static void main(String[] args) throws Exception {
+        double[][] inputs = {{0, 0}, {0, 1}, {1, 0}, {1, 1}};
+        double[][] targets = {{0}, {1}, {1}, {0}};
+        MLP mlp = new MLP(2, 4, 1);
+        mlp.train(inputs, targets, 10000, 0.1);
+
+        try (ScoringService service = new ScoringService(Scorer.of(mlp), 64, 500, 2);
+             ScoringServer server = new ScoringServer(service, 0)) {
+            ExecutorService clients = Executors.newFixedThreadPool(16);
+            List<CompletableFuture<double[]>> results = new ArrayList<>();
+            for (int i = 0; i < 10000; i++) {
+                double[] row = inputs[i % inputs.length];
+                results.add(CompletableFuture.supplyAsync(() -> service.score(row), clients));
+            }
+            results.forEach(CompletableFuture::join);
+            clients.shutdown();
+            System.out.println("Serving on http://localhost:" + server.port() + "/score");
+            System.out.println("XOR(1, 0) = " + service.score(new double[]{1, 0})[0]);
+            System.out.print(new String(new URL("http://localhost:" + server.port() + "/metrics")
+                    .openStream().readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+}
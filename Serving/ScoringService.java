@@ -0,0 +1,208 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// In-process scoring with micro-batching: single-row requests from any number of threads are
+// queued, and worker threads coalesce whatever has arrived into one batch of up to
+// maxBatchSize rows, waiting at most maxDelayMicros past the oldest request's arrival for
+// more to come in. A batch is scored with one Scorer call, so its per-row cost is that of the
+// model's batch predict rather than one predict per request.
+//
+// setScorer swaps the model without pausing traffic: each batch reads the scorer once, so
+// batches in flight finish on the old model and the next batch picks up the new one.
+public class ScoringService implements AutoCloseable {
+    private static class Request {
+        final double[] row;
+        final long arrivalNanos;
+        final CompletableFuture<double[]> result = new CompletableFuture<>();
+
+        Request(double[] row) {
+            this.row = row;
+            this.arrivalNanos = System.nanoTime();
+        }
+    }
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final Thread[] workers;
+    private volatile Scorer scorer;
+    private volatile boolean closed;
+
+    // Latency from submit to result, and how many batches had each size
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLongArray batchSizes;
+
+    public ScoringService(Scorer scorer, int maxBatchSize, long maxDelayMicros, int workers) {
+        if (maxBatchSize < 1 || maxDelayMicros < 0 || workers < 1) {
+            throw new IllegalArgumentException("Need maxBatchSize >= 1, maxDelayMicros >= 0 and workers >= 1");
+        }
+        this.scorer = scorer;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelayMicros * 1000;
+        this.batchSizes = new AtomicLongArray(maxBatchSize + 1);
+        this.workers = new Thread[workers];
+        for (int t = 0; t < workers; t++) {
+            this.workers[t] = new Thread(this::work, "scoring-" + t);
+            this.workers[t].setDaemon(true);
+            this.workers[t].start();
+        }
+    }
+
+    public void setScorer(Scorer scorer) {
+        this.scorer = scorer;
+    }
+
+    // Width the current scorer expects, or 0 if it accepts any
+    public int nFeatures() {
+        return scorer.nFeatures();
+    }
+
+    // Completes with the row's outputs, or exceptionally with whatever the scorer threw. A row
+    // of the wrong width fails at once and is never batched with other callers' rows.
+    public CompletableFuture<double[]> submit(double[] row) {
+        if (closed) {
+            throw new IllegalStateException("Scoring service is closed");
+        }
+        IllegalArgumentException invalid = checkWidth(scorer, row);
+        if (invalid != null) {
+            return CompletableFuture.failedFuture(invalid);
+        }
+        Request request = new Request(row);
+        queue.add(request);
+        if (closed && queue.remove(request)) {
+            // Lost a race with close, which may already have drained the queue
+            request.result.completeExceptionally(new IllegalStateException("Scoring service is closed"));
+        }
+        return request.result;
+    }
+
+    // Blocks the calling thread until its row has been scored
+    public double[] score(double[] row) {
+        try {
+            return submit(row).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scoring", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private void work() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (!closed) {
+                batch.add(queue.take());
+                long deadline = batch.get(0).arrivalNanos + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() == maxBatchSize || wait <= 0) break;
+                    Request next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                score(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // close() interrupts the workers; anything taken but not scored is failed below
+            for (Request request : batch) {
+                request.result.completeExceptionally(new IllegalStateException("Scoring service is closed"));
+            }
+        }
+    }
+
+    private static IllegalArgumentException checkWidth(Scorer scorer, double[] row) {
+        int nFeatures = scorer.nFeatures();
+        if (nFeatures > 0 && row.length != nFeatures) {
+            return new IllegalArgumentException("Row has " + row.length + " values, the model expects " + nFeatures);
+        }
+        return null;
+    }
+
+    private void score(List<Request> batch) {
+        // Checked again against the scorer this batch runs on, which setScorer may have
+        // replaced since submit
+        Scorer scorer = this.scorer;
+        batch.removeIf(request -> {
+            IllegalArgumentException invalid = checkWidth(scorer, request.row);
+            if (invalid != null) request.result.completeExceptionally(invalid);
+            return invalid != null;
+        });
+        if (batch.isEmpty()) return;
+        double[][] rows = new double[batch.size()][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = batch.get(i).row;
+        }
+        try {
+            double[][] outputs = scorer.score(rows);
+            long now = System.nanoTime();
+            for (int i = 0; i < rows.length; i++) {
+                Request request = batch.get(i);
+                latency.record((now - request.arrivalNanos) / 1000);
+                request.result.complete(outputs[i]);
+            }
+        } catch (RuntimeException | Error e) {
+            for (Request request : batch) {
+                request.result.completeExceptionally(e);
+            }
+        }
+        batchSizes.incrementAndGet(rows.length);
+    }
+
+    // Latency in microseconds from submit to result at quantile p, over the requests scored
+    // since the last resetStatistics
+    public long latencyPercentileMicros(double p) {
+        return latency.percentile(p);
+    }
+
+    public long requestsScored() {
+        return latency.count();
+    }
+
+    // Entry k is the number of batches that held k rows
+    public long[] batchSizeHistogram() {
+        long[] histogram = new long[batchSizes.length()];
+        for (int k = 0; k < histogram.length; k++) {
+            histogram[k] = batchSizes.get(k);
+        }
+        return histogram;
+    }
+
+    public void resetStatistics() {
+        latency.reset();
+        for (int k = 0; k < batchSizes.length(); k++) {
+            batchSizes.set(k, 0);
+        }
+    }
+
+    // Stops the workers; requests still queued complete exceptionally
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Request request; (request = queue.poll()) != null; ) {
+            request.result.completeExceptionally(new IllegalStateException("Scoring service is closed"));
+        }
+    }
+}
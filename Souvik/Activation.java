@@ -0,0 +1,106 @@
+// Element-wise (or, for softmax, row-wise) activation applied in place to a layer's outputs
+public enum Activation {
+    SIGMOID {
+        @Override
+        void apply(double[] z, int offset, int n) {
+            for (int i = offset; i < offset + n; i++) {
+                z[i] = 1 / (1 + Math.exp(-z[i]));
+            }
+        }
+
+        @Override
+        double derivative(double y) {
+            return y * (1 - y);
+        }
+    },
+    RELU {
+        @Override
+        void apply(double[] z, int offset, int n) {
+            for (int i = offset; i < offset + n; i++) {
+                if (z[i] < 0) z[i] = 0;
+            }
+        }
+
+        @Override
+        double derivative(double y) {
+            return y > 0 ? 1 : 0;
+        }
+    },
+    TANH {
+        @Override
+        void apply(double[] z, int offset, int n) {
+            for (int i = offset; i < offset + n; i++) {
+                z[i] = Math.tanh(z[i]);
+            }
+        }
+
+        @Override
+        double derivative(double y) {
+            return 1 - y * y;
+        }
+    },
+    // Only valid on the output layer together with cross-entropy loss
+    SOFTMAX {
+        @Override
+        void apply(double[] z, int offset, int n) {
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = offset; i < offset + n; i++) {
+                max = Math.max(max, z[i]);
+            }
+            double sum = 0;
+            for (int i = offset; i < offset + n; i++) {
+                z[i] = Math.exp(z[i] - max);
+                sum += z[i];
+            }
+            for (int i = offset; i < offset + n; i++) {
+                z[i] /= sum;
+            }
+        }
+
+        @Override
+        double derivative(double y) {
+            throw new UnsupportedOperationException("softmax has no element-wise derivative");
+        }
+    };
+
+    // Activates z[offset, offset + n), one row of a batch
+    abstract void apply(double[] z, int offset, int n);
+
+    // Float32 variant for the exported inference models
+    void apply(float[] z, int offset, int n) {
+        switch (this) {
+            case SIGMOID:
+                for (int i = offset; i < offset + n; i++) {
+                    z[i] = (float) (1 / (1 + Math.exp(-z[i])));
+                }
+                break;
+            case RELU:
+                for (int i = offset; i < offset + n; i++) {
+                    if (z[i] < 0) z[i] = 0;
+                }
+                break;
+            case TANH:
+                for (int i = offset; i < offset + n; i++) {
+                    z[i] = (float) Math.tanh(z[i]);
+                }
+                break;
+            case SOFTMAX:
+                float max = Float.NEGATIVE_INFINITY;
+                for (int i = offset; i < offset + n; i++) {
+                    max = Math.max(max, z[i]);
+                }
+                float sum = 0;
+                for (int i = offset; i < offset + n; i++) {
+                    z[i] = (float) Math.exp(z[i] - max);
+                    sum += z[i];
+                }
+                for (int i = offset; i < offset + n; i++) {
+                    z[i] /= sum;
+                }
+                break;
+        }
+    }
+
+    // d activation / dz, written in terms of the activation's output y
+    abstract double derivative(double y);
+}
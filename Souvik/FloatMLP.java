@@ -0,0 +1,65 @@
+// Float32 inference copy of a trained MLP: half the weight bytes per forward pass
+public class FloatMLP {
+    private final int[] sizes;
+    private final Activation[] activations;
+    private final float[][] weights;
+    private final float[][] biases;
+    private final ThreadLocal<float[][]> buffers;
+
+    FloatMLP(int[] sizes, Activation[] activations, double[][] weights, double[][] biases) {
+        this.sizes = sizes.clone();
+        this.activations = activations.clone();
+        this.weights = new float[weights.length][];
+        this.biases = new float[biases.length][];
+        for (int l = 0; l < weights.length; l++) {
+            this.weights[l] = toFloat(weights[l]);
+            this.biases[l] = toFloat(biases[l]);
+        }
+        this.buffers = ThreadLocal.withInitial(() -> {
+            float[][] layers = new float[this.sizes.length][];
+            for (int l = 0; l < this.sizes.length; l++) {
+                layers[l] = new float[this.sizes[l]];
+            }
+            return layers;
+        });
+    }
+
+    private static float[] toFloat(double[] values) {
+        float[] result = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (float) values[i];
+        }
+        return result;
+    }
+
+    // Safe to call from many threads at once
+    public double[] predict(double[] input) {
+        float[][] layers = buffers.get();
+        for (int i = 0; i < sizes[0]; i++) {
+            layers[0][i] = (float) input[i];
+        }
+        for (int l = 0; l < weights.length; l++) {
+            float[] in = layers[l];
+            float[] out = layers[l + 1];
+            float[] w = weights[l];
+            int nOut = sizes[l + 1];
+            System.arraycopy(biases[l], 0, out, 0, nOut);
+            for (int i = 0; i < sizes[l]; i++) {
+                float a = in[i];
+                if (a == 0) continue;
+                int row = i * nOut;
+                for (int j = 0; j < nOut; j++) {
+                    out[j] += a * w[row + j];
+                }
+            }
+            activations[l].apply(out, 0, nOut);
+        }
+
+        float[] output = layers[weights.length];
+        double[] result = new double[output.length];
+        for (int k = 0; k < output.length; k++) {
+            result[k] = output[k];
+        }
+        return result;
+    }
+}
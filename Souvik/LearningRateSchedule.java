@@ -0,0 +1,22 @@
+// Learning rate used in a given epoch, derived from the rate passed to train
+public interface LearningRateSchedule {
+    double rate(double baseRate, int epoch);
+
+    static LearningRateSchedule constant() {
+        return (baseRate, epoch) -> baseRate;
+    }
+
+    // Multiplies the rate by factor every stepEpochs epochs
+    static LearningRateSchedule stepDecay(int stepEpochs, double factor) {
+        return (baseRate, epoch) -> baseRate * Math.pow(factor, epoch / stepEpochs);
+    }
+
+    static LearningRateSchedule exponential(double gamma) {
+        return (baseRate, epoch) -> baseRate * Math.pow(gamma, epoch);
+    }
+
+    // Anneals from baseRate to 0 over totalEpochs along half a cosine
+    static LearningRateSchedule cosine(int totalEpochs) {
+        return (baseRate, epoch) -> 0.5 * baseRate * (1 + Math.cos(Math.PI * Math.min(epoch, totalEpochs) / totalEpochs));
+    }
+}
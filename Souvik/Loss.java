@@ -0,0 +1,6 @@
+public enum Loss {
+    // 0.5 (t - o)^2 summed over outputs
+    SQUARED_ERROR,
+    // -t log o for softmax outputs, binary cross-entropy for sigmoid outputs
+    CROSS_ENTROPY
+}
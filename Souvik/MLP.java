@@ -1,44 +1,169 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MLP {
 
     private int inputSize;
-    private int hiddenSize;
     private int outputSize;
-    private double[][] weightsInputHidden;
-    private double[] biasHidden;
-    private double[][] weightsHiddenOutput;
-    private double[] biasOutput;
-    private double[] hiddenLayerOutput;
-    private double[] outputLayerOutput;
+    // Layer l maps sizes[l] inputs to sizes[l + 1] outputs through the row-major
+    // sizes[l] x sizes[l + 1] matrix weights[l], then activations[l]
+    private int[] sizes;
+    private Activation[] activations;
+    private Loss loss;
+    private double[][] weights;
+    private double[][] biases;
+    // weights and biases interleaved as {W0, b0, W1, b1, ...}, the layout optimizers see
+    private double[][] parameters;
+    private Optimizer optimizer = Optimizer.sgd();
+    private LearningRateSchedule schedule = LearningRateSchedule.constant();
+    // Single-row buffers for forward, backward and predict, one set per calling thread
+    private ThreadLocal<Workspace> workspace;
+    private int parallelism = 1;
+    private boolean hogwild;
+    private TrainingListener listener;
+    private double[][] validationInputs;
+    private double[][] validationTargets;
+    private int patience;
+    private double minDelta;
     private Random random;
 
     public MLP(int inputSize, int hiddenSize, int outputSize) {
-        this.inputSize = inputSize;
-        this.hiddenSize = hiddenSize;
-        this.outputSize = outputSize;
+        this(new int[]{inputSize, hiddenSize, outputSize}, new Activation[]{Activation.SIGMOID, Activation.SIGMOID}, Loss.SQUARED_ERROR, 0.5);
+    }
+
+    // A stack of dense layers: layerSizes[0] inputs, then one activation per following size.
+    // Weights start Glorot-uniform and biases at zero.
+    public MLP(int[] layerSizes, Activation[] activations, Loss loss) {
+        this(layerSizes, activations, loss, 0);
+    }
+
+    // weightRange > 0 draws weights and biases uniformly from [-weightRange, weightRange)
+    private MLP(int[] layerSizes, Activation[] activations, Loss loss, double weightRange) {
+        int nLayers = layerSizes.length - 1;
+        if (nLayers < 1 || activations.length != nLayers) {
+            throw new IllegalArgumentException("Need one activation per layer after the input: " + nLayers + " layers, " + activations.length + " activations");
+        }
+        for (int l = 0; l < nLayers - 1; l++) {
+            if (activations[l] == Activation.SOFTMAX) {
+                throw new IllegalArgumentException("SOFTMAX is only supported on the output layer");
+            }
+        }
+        Activation outputActivation = activations[nLayers - 1];
+        if (outputActivation == Activation.SOFTMAX && loss != Loss.CROSS_ENTROPY) {
+            throw new IllegalArgumentException("SOFTMAX output requires CROSS_ENTROPY loss");
+        }
+        if (loss == Loss.CROSS_ENTROPY && outputActivation != Activation.SOFTMAX && outputActivation != Activation.SIGMOID) {
+            throw new IllegalArgumentException("CROSS_ENTROPY loss requires a SIGMOID or SOFTMAX output");
+        }
+
+        this.inputSize = layerSizes[0];
+        this.outputSize = layerSizes[nLayers];
+        this.sizes = layerSizes.clone();
+        this.activations = activations.clone();
+        this.loss = loss;
         this.random = new Random();
 
+        weights = new double[nLayers][];
+        biases = new double[nLayers][];
+        parameters = new double[2 * nLayers][];
+        for (int l = 0; l < nLayers; l++) {
+            weights[l] = new double[sizes[l] * sizes[l + 1]];
+            biases[l] = new double[sizes[l + 1]];
+            parameters[2 * l] = weights[l];
+            parameters[2 * l + 1] = biases[l];
+        }
+
         // Initialize weights and biases
-        weightsInputHidden = new double[inputSize][hiddenSize];
-        biasHidden = new double[hiddenSize];
-        weightsHiddenOutput = new double[hiddenSize][outputSize];
-        biasOutput = new double[outputSize];
-        hiddenLayerOutput = new double[hiddenSize];
-        outputLayerOutput = new double[outputSize];
+        for (int l = 0; l < nLayers; l++) {
+            initializeWeights(weights[l], weightRange > 0 ? weightRange : Math.sqrt(6.0 / (sizes[l] + sizes[l + 1])));
+        }
+        if (weightRange > 0) {
+            for (double[] b : biases) {
+                initializeBias(b);
+            }
+        }
+        workspace = ThreadLocal.withInitial(() -> new Workspace(sizes, 1));
+    }
+
+    // Activations, deltas and gradients for up to capacity rows, allocated once and reused
+    static class Workspace {
+        final int capacity;
+        // activations[0] holds the input rows, activations[l + 1] the outputs of layer l
+        final double[][] activations;
+        final double[][] deltas;
+        final double[][] weightGrads;
+        final double[][] biasGrads;
+        // weightGrads and biasGrads interleaved like MLP.parameters
+        final double[][] gradients;
+        final double[] targets;
+        // When the batch comes from a CsrMatrix, its rows [sparseStart, sparseStart + rows)
+        // stand in for activations[0], and the first layer multiplies them directly
+        CsrMatrix sparseInputs;
+        int sparseStart;
+
+        Workspace(int[] sizes, int capacity) {
+            int nLayers = sizes.length - 1;
+            this.capacity = capacity;
+            this.activations = new double[nLayers + 1][];
+            this.deltas = new double[nLayers][];
+            this.weightGrads = new double[nLayers][];
+            this.biasGrads = new double[nLayers][];
+            this.gradients = new double[2 * nLayers][];
+            for (int l = 0; l <= nLayers; l++) {
+                activations[l] = new double[capacity * sizes[l]];
+            }
+            for (int l = 0; l < nLayers; l++) {
+                deltas[l] = new double[capacity * sizes[l + 1]];
+                weightGrads[l] = new double[sizes[l] * sizes[l + 1]];
+                biasGrads[l] = new double[sizes[l + 1]];
+                gradients[2 * l] = weightGrads[l];
+                gradients[2 * l + 1] = biasGrads[l];
+            }
+            this.targets = new double[capacity * sizes[nLayers]];
+        }
 
-        initializeWeights(weightsInputHidden);
-        initializeWeights(weightsHiddenOutput);
-        initializeBias(biasHidden);
-        initializeBias(biasOutput);
+        // Copies rows [start, start + rows) of inputs and targets into the batch buffers;
+        // sparse inputs are referenced rather than copied
+        void load(Dataset inputs, double[][] targets, int start, int rows) {
+            loadInputs(inputs, start, rows);
+            for (int r = 0; r < rows; r++) {
+                double[] target = targets[start + r];
+                System.arraycopy(target, 0, this.targets, r * target.length, target.length);
+            }
+        }
+
+        void loadInputs(Dataset inputs, int start, int rows) {
+            if (inputs instanceof CsrMatrix) {
+                sparseInputs = (CsrMatrix) inputs;
+                sparseStart = start;
+                return;
+            }
+            sparseInputs = null;
+            int nInputs = inputs.nFeatures();
+            for (int r = 0; r < rows; r++) {
+                inputs.row(start + r, activations[0], r * nInputs);
+            }
+        }
+
+        void loadInput(double[] input) {
+            sparseInputs = null;
+            System.arraycopy(input, 0, activations[0], 0, input.length);
+        }
     }
 
-    private void initializeWeights(double[][] weights) {
+    // Uniform in [-range, range)
+    private void initializeWeights(double[] weights, double range) {
         for (int i = 0; i < weights.length; i++) {
-            for (int j = 0; j < weights[i].length; j++) {
-                weights[i][j] = random.nextDouble() - 0.5;
-            }
+            weights[i] = (random.nextDouble() - 0.5) * 2 * range;
         }
     }
 
@@ -48,91 +173,462 @@ public class MLP {
         }
     }
 
-    private double sigmoid(double x) {
-        return 1 / (1 + Math.exp(-x));
+    public void setOptimizer(Optimizer optimizer) {
+        this.optimizer = optimizer;
     }
 
-    private double sigmoidDerivative(double x) {
-        return x * (1 - x);
+    public void setSchedule(LearningRateSchedule schedule) {
+        this.schedule = schedule;
     }
 
+    // Worker threads used by train; gradients of each mini-batch are computed on shards in parallel
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    // With parallelism > 1, lets every worker run SGD on its own slice of the data and
+    // update the shared weights without locking (Hogwild) instead of averaging per batch.
+    // Hogwild always takes plain SGD steps, since optimizer state cannot be shared racily.
+    public void setHogwild(boolean hogwild) {
+        this.hogwild = hogwild;
+    }
+
+    // Held-out rows whose loss train measures after every epoch
+    public void setValidation(double[][] inputs, double[][] targets) {
+        this.validationInputs = inputs;
+        this.validationTargets = targets;
+    }
+
+    // Stops train once the validation loss has not improved by more than minDelta for
+    // patience epochs, restoring the weights of the best epoch; patience 0 disables
+    public void setEarlyStopping(int patience, double minDelta) {
+        this.patience = patience;
+        this.minDelta = minDelta;
+    }
+
+    // Receives epochCompleted from train; training loss is only computed while a listener is set
+    public void setListener(TrainingListener listener) {
+        this.listener = listener;
+    }
+
+    // Returns this thread's output buffer, overwritten by its next forward call
     public double[] forward(double[] input) {
-        // Input to Hidden Layer
-        for (int j = 0; j < hiddenSize; j++) {
-            double sum = 0;
-            for (int i = 0; i < inputSize; i++) {
-                sum += input[i] * weightsInputHidden[i][j];
+        Workspace ws = workspace.get();
+        ws.loadInput(input);
+        forwardBatch(ws, 1);
+        return ws.activations[weights.length];
+    }
+
+    public void backward(double[] input, double[] target, double[] output, double learningRate) {
+        Workspace ws = workspace.get();
+        int last = weights.length;
+        ws.loadInput(input);
+        if (output != ws.activations[last]) {
+            System.arraycopy(output, 0, ws.activations[last], 0, outputSize);
+        }
+        System.arraycopy(target, 0, ws.targets, 0, outputSize);
+        backwardBatch(ws, 1);
+        optimizer.step(parameters, ws.gradients, learningRate);
+    }
+
+    // Runs the loaded rows through every layer as one matrix product per layer, adding the
+    // bias and activating each row in the same pass. Sparse rows enter the first layer as a
+    // sparse-dense product, costing non-zeros x outputs instead of inputs x outputs.
+    private void forwardBatch(Workspace ws, int rows) {
+        for (int l = 0; l < weights.length; l++) {
+            int in = sizes[l];
+            int out = sizes[l + 1];
+            double[] z = ws.activations[l + 1];
+            double[] bias = biases[l];
+            Activation activation = activations[l];
+            if (l == 0 && ws.sparseInputs != null) {
+                ws.sparseInputs.multiply(ws.sparseStart, rows, weights[l], z, out);
+            } else {
+                Matrices.multiply(ws.activations[l], weights[l], z, rows, in, out);
+            }
+            for (int r = 0; r < rows; r++) {
+                int row = r * out;
+                for (int j = 0; j < out; j++) {
+                    z[row + j] += bias[j];
+                }
+                activation.apply(z, row, out);
+            }
+        }
+    }
+
+    // Fills the workspace gradients with the mean over rows of the loss's descent direction
+    private void backwardBatch(Workspace ws, int rows) {
+        int last = weights.length - 1;
+        double[] output = ws.activations[last + 1];
+        double[] outputDeltas = ws.deltas[last];
+        Activation outputActivation = activations[last];
+        for (int i = 0; i < rows * outputSize; i++) {
+            double error = ws.targets[i] - output[i];
+            // Cross-entropy through a sigmoid or softmax output reduces to target - output
+            outputDeltas[i] = loss == Loss.CROSS_ENTROPY ? error : error * outputActivation.derivative(output[i]);
+        }
+
+        double scale = 1.0 / rows;
+        for (int l = last; l >= 0; l--) {
+            int in = sizes[l];
+            int out = sizes[l + 1];
+            double[] delta = ws.deltas[l];
+
+            double[] weightGrad = ws.weightGrads[l];
+            if (l == 0 && ws.sparseInputs != null) {
+                ws.sparseInputs.multiplyTransposeA(ws.sparseStart, rows, delta, weightGrad, out);
+            } else {
+                Matrices.multiplyTransposeA(ws.activations[l], delta, weightGrad, in, rows, out);
+            }
+            for (int i = 0; i < in * out; i++) {
+                weightGrad[i] *= scale;
+            }
+
+            double[] biasGrad = ws.biasGrads[l];
+            Arrays.fill(biasGrad, 0);
+            for (int r = 0; r < rows; r++) {
+                for (int j = 0; j < out; j++) {
+                    biasGrad[j] += delta[r * out + j];
+                }
+            }
+            for (int j = 0; j < out; j++) {
+                biasGrad[j] *= scale;
+            }
+
+            if (l > 0) {
+                // Propagate through the weights before they are updated
+                double[] prevDelta = ws.deltas[l - 1];
+                double[] prevOutput = ws.activations[l];
+                Activation prevActivation = activations[l - 1];
+                Matrices.multiplyTransposeB(delta, weights[l], prevDelta, rows, out, in);
+                for (int i = 0; i < rows * in; i++) {
+                    prevDelta[i] *= prevActivation.derivative(prevOutput[i]);
+                }
             }
-            sum += biasHidden[j];
-            hiddenLayerOutput[j] = sigmoid(sum);
         }
+    }
 
-        // Hidden to Output Layer
-        for (int k = 0; k < outputSize; k++) {
-            double sum = 0;
-            for (int j = 0; j < hiddenSize; j++) {
-                sum += hiddenLayerOutput[j] * weightsHiddenOutput[j][k];
+    // Mean loss over the given rows
+    public double loss(double[][] inputs, double[][] targets) {
+        double total = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            double[] output = forward(inputs[i]);
+            double[] target = targets[i];
+            for (int k = 0; k < outputSize; k++) {
+                total += loss(output[k], target[k]);
             }
-            sum += biasOutput[k];
-            outputLayerOutput[k] = sigmoid(sum);
         }
+        return total / inputs.length;
+    }
 
-        return outputLayerOutput;
+    // Summed loss of the rows held in the workspace after forwardBatch
+    private double batchLoss(Workspace ws, int rows) {
+        double[] output = ws.activations[weights.length];
+        double total = 0;
+        for (int i = 0; i < rows * outputSize; i++) {
+            total += loss(output[i], ws.targets[i]);
+        }
+        return total;
     }
 
-    public void backward(double[] input, double[] target, double[] output, double learningRate) {
-        double[] outputErrors = new double[outputSize];
-        double[] outputDeltas = new double[outputSize];
+    private double loss(double o, double t) {
+        if (loss == Loss.SQUARED_ERROR) {
+            return 0.5 * (t - o) * (t - o);
+        } else if (activations[activations.length - 1] == Activation.SOFTMAX) {
+            return -t * Math.log(Math.max(o, 1e-15));
+        }
+        return -(t * Math.log(Math.max(o, 1e-15)) + (1 - t) * Math.log(Math.max(1 - o, 1e-15)));
+    }
+
+    public void train(double[][] inputs, double[][] targets, int epochs, double learningRate) {
+        train(inputs, targets, epochs, learningRate, 1);
+    }
+
+    // Mini-batch gradient descent: each step averages the gradient over batchSize rows,
+    // computed with one matrix product per layer; batchSize 1 is per-sample SGD
+    public void train(double[][] inputs, double[][] targets, int epochs, double learningRate, int batchSize) {
+        train(Dataset.of(inputs), targets, epochs, learningRate, batchSize);
+    }
+
+    // Reads each mini-batch's rows from inputs as needed, so inputs may be memory-mapped; a
+    // CsrMatrix is trained on in sparse form, though the weight update itself stays dense.
+    // With validation data set, scores it after every epoch and, when early stopping is on,
+    // stops once it stops improving and leaves the best epoch's weights in place.
+    public void train(Dataset inputs, double[][] targets, int epochs, double learningRate, int batchSize) {
+        long start = System.nanoTime();
+        boolean trackLoss = listener != null;
+        ExecutorService pool = parallelism > 1 ? Executors.newFixedThreadPool(parallelism) : null;
+        try {
+            Epoch epochRunner;
+            if (pool == null) {
+                epochRunner = sequentialEpoch(inputs, targets, batchSize, trackLoss);
+            } else if (hogwild) {
+                epochRunner = hogwildEpoch(pool, inputs, targets, batchSize, trackLoss);
+            } else {
+                epochRunner = synchronousEpoch(pool, inputs, targets, batchSize, trackLoss);
+            }
 
-        for (int k = 0; k < outputSize; k++) {
-            outputErrors[k] = target[k] - output[k];
-            outputDeltas[k] = outputErrors[k] * sigmoidDerivative(output[k]);
+            double bestLoss = Double.POSITIVE_INFINITY;
+            int bestEpoch = -1;
+            double[][] best = null;
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                double epochLoss = epochRunner.run(schedule.rate(learningRate, epoch));
+                if (listener != null) {
+                    listener.epochCompleted(epoch, epochLoss / inputs.nRows(), System.nanoTime() - start);
+                }
+                if (validationInputs == null) continue;
+
+                double validationLoss = loss(validationInputs, validationTargets);
+                if (listener != null) {
+                    listener.validationCompleted(epoch, validationLoss);
+                }
+                if (patience <= 0) continue;
+                if (validationLoss < bestLoss - minDelta) {
+                    bestLoss = validationLoss;
+                    bestEpoch = epoch;
+                    best = copyParameters(best);
+                } else if (epoch - bestEpoch >= patience) {
+                    break;
+                }
+            }
+            if (best != null) {
+                for (int p = 0; p < parameters.length; p++) {
+                    System.arraycopy(best[p], 0, parameters[p], 0, parameters[p].length);
+                }
+            }
+        } finally {
+            if (pool != null) pool.shutdown();
         }
+    }
 
-        double[] hiddenErrors = new double[hiddenSize];
-        double[] hiddenDeltas = new double[hiddenSize];
+    // One pass over the training rows at the given rate; returns the summed training loss
+    // of the rows as they were trained on, or 0 when loss is not tracked
+    private interface Epoch {
+        double run(double rate);
+    }
 
-        for (int j = 0; j < hiddenSize; j++) {
-            double sum = 0;
-            for (int k = 0; k < outputSize; k++) {
-                sum += outputDeltas[k] * weightsHiddenOutput[j][k];
+    private Epoch sequentialEpoch(Dataset inputs, double[][] targets, int batchSize, boolean trackLoss) {
+        Workspace ws = batchSize == 1 ? workspace.get() : new Workspace(sizes, Math.min(batchSize, inputs.nRows()));
+        return rate -> {
+            double epochLoss = 0;
+            for (int start = 0; start < inputs.nRows(); start += ws.capacity) {
+                int rows = Math.min(ws.capacity, inputs.nRows() - start);
+                ws.load(inputs, targets, start, rows);
+                forwardBatch(ws, rows);
+                if (trackLoss) epochLoss += batchLoss(ws, rows);
+                backwardBatch(ws, rows);
+                optimizer.step(parameters, ws.gradients, rate);
             }
-            hiddenErrors[j] = sum;
-            hiddenDeltas[j] = hiddenErrors[j] * sigmoidDerivative(hiddenLayerOutput[j]);
+            return epochLoss;
+        };
+    }
+
+    // Splits every mini-batch into one shard per worker, then combines the shard gradients
+    // weighted by shard size so the update equals the sequential mini-batch step
+    private Epoch synchronousEpoch(ExecutorService pool, Dataset inputs, double[][] targets, int batchSize, boolean trackLoss) {
+        int workers = parallelism;
+        int batch = Math.min(batchSize, inputs.nRows());
+        int shardCapacity = (batch + workers - 1) / workers;
+        Workspace[] shards = new Workspace[workers];
+        int[] shardStart = new int[workers];
+        int[] shardRows = new int[workers];
+        List<Callable<Double>> tasks = new ArrayList<>();
+        for (int t = 0; t < workers; t++) {
+            int worker = t;
+            shards[t] = new Workspace(sizes, shardCapacity);
+            tasks.add(() -> {
+                Workspace ws = shards[worker];
+                int rows = shardRows[worker];
+                double shardLoss = 0;
+                if (rows > 0) {
+                    ws.load(inputs, targets, shardStart[worker], rows);
+                    forwardBatch(ws, rows);
+                    if (trackLoss) shardLoss = batchLoss(ws, rows);
+                    backwardBatch(ws, rows);
+                }
+                return shardLoss;
+            });
         }
 
-        for (int j = 0; j < hiddenSize; j++) {
-            for (int k = 0; k < outputSize; k++) {
-                weightsHiddenOutput[j][k] += learningRate * outputDeltas[k] * hiddenLayerOutput[j];
+        return rate -> {
+            double epochLoss = 0;
+            for (int start = 0; start < inputs.nRows(); start += batch) {
+                int rows = Math.min(batch, inputs.nRows() - start);
+                for (int t = 0; t < workers; t++) {
+                    shardStart[t] = start + Math.min(rows, t * shardCapacity);
+                    shardRows[t] = Math.max(0, Math.min(shardCapacity, rows - t * shardCapacity));
+                }
+                epochLoss += sumAll(pool, tasks);
+                reduceGradients(shards, shardRows, rows);
+                optimizer.step(parameters, shards[0].gradients, rate);
+            }
+            return epochLoss;
+        };
+    }
+
+    // Leaves the row-weighted mean of all shard gradients in shards[0]
+    private void reduceGradients(Workspace[] shards, int[] shardRows, int rows) {
+        for (int l = 0; l < weights.length; l++) {
+            double[] weightGrad = shards[0].weightGrads[l];
+            double[] biasGrad = shards[0].biasGrads[l];
+            double scale = (double) shardRows[0] / rows;
+            for (int i = 0; i < weightGrad.length; i++) {
+                weightGrad[i] *= scale;
+            }
+            for (int j = 0; j < biasGrad.length; j++) {
+                biasGrad[j] *= scale;
             }
+            for (int t = 1; t < shards.length; t++) {
+                if (shardRows[t] == 0) continue;
+                double weight = (double) shardRows[t] / rows;
+                double[] otherWeightGrad = shards[t].weightGrads[l];
+                double[] otherBiasGrad = shards[t].biasGrads[l];
+                for (int i = 0; i < weightGrad.length; i++) {
+                    weightGrad[i] += weight * otherWeightGrad[i];
+                }
+                for (int j = 0; j < biasGrad.length; j++) {
+                    biasGrad[j] += weight * otherBiasGrad[j];
+                }
+            }
+        }
+    }
+
+    // Each worker owns a contiguous slice of the rows and applies its mini-batch updates
+    // straight to the shared weights; racing updates are tolerated. Workers meet only at
+    // the end of each epoch.
+    private Epoch hogwildEpoch(ExecutorService pool, Dataset inputs, double[][] targets, int batchSize, boolean trackLoss) {
+        int workers = parallelism;
+        Optimizer sgd = Optimizer.sgd();
+        double[] rate = new double[1];
+        List<Callable<Double>> tasks = new ArrayList<>();
+        for (int t = 0; t < workers; t++) {
+            int from = (int) ((long) t * inputs.nRows() / workers);
+            int to = (int) ((long) (t + 1) * inputs.nRows() / workers);
+            if (from == to) continue;
+            Workspace ws = new Workspace(sizes, Math.min(batchSize, to - from));
+            tasks.add(() -> {
+                double workerLoss = 0;
+                for (int start = from; start < to; start += ws.capacity) {
+                    int rows = Math.min(ws.capacity, to - start);
+                    ws.load(inputs, targets, start, rows);
+                    forwardBatch(ws, rows);
+                    if (trackLoss) workerLoss += batchLoss(ws, rows);
+                    backwardBatch(ws, rows);
+                    sgd.step(parameters, ws.gradients, rate[0]);
+                }
+                return workerLoss;
+            });
         }
+        return epochRate -> {
+            rate[0] = epochRate;
+            return sumAll(pool, tasks);
+        };
+    }
 
-        for (int k = 0; k < outputSize; k++) {
-            biasOutput[k] += learningRate * outputDeltas[k];
+    // Runs the tasks and returns the sum of their results
+    private static double sumAll(ExecutorService pool, List<Callable<Double>> tasks) {
+        double sum = 0;
+        for (double result : Tasks.runAll(pool, tasks)) {
+            sum += result;
         }
+        return sum;
+    }
 
-        for (int i = 0; i < inputSize; i++) {
-            for (int j = 0; j < hiddenSize; j++) {
-                weightsInputHidden[i][j] += learningRate * hiddenDeltas[j] * input[i];
+    // Copies the current weights and biases into into, allocating it on first use
+    private double[][] copyParameters(double[][] into) {
+        if (into == null) {
+            into = new double[parameters.length][];
+            for (int p = 0; p < parameters.length; p++) {
+                into[p] = new double[parameters[p].length];
             }
         }
+        for (int p = 0; p < parameters.length; p++) {
+            System.arraycopy(parameters[p], 0, into[p], 0, parameters[p].length);
+        }
+        return into;
+    }
+
+    // Inference-only copy with float32 weights and activations
+    public FloatMLP toFloat32() {
+        return new FloatMLP(sizes, activations, weights, biases);
+    }
 
-        for (int j = 0; j < hiddenSize; j++) {
-            biasHidden[j] += learningRate * hiddenDeltas[j];
+    // Inference-only copy with int8 weights, quantized per layer
+    public QuantizedMLP toInt8() {
+        return new QuantizedMLP(sizes, activations, weights, biases);
+    }
+
+    // Payload layout: ints {nLayers, loss, sizes..., activations...} with enums as ordinals,
+    // then each layer's weights followed by its biases
+    public void save(Path path) throws IOException {
+        int nLayers = weights.length;
+        int[] header = new int[2 + 2 * nLayers + 1];
+        header[0] = nLayers;
+        header[1] = loss.ordinal();
+        System.arraycopy(sizes, 0, header, 2, nLayers + 1);
+        for (int l = 0; l < nLayers; l++) {
+            header[3 + nLayers + l] = activations[l].ordinal();
+        }
+        long doubles = 0;
+        for (int l = 0; l < nLayers; l++) {
+            doubles += weights[l].length + biases[l].length;
+        }
+        MappedByteBuffer buffer = ModelFile.create(path, ModelFile.MLP, 8 + ModelFile.intBytes(header.length) + doubles * Double.BYTES);
+        buffer.putInt(header.length).putInt(0);
+        ModelFile.putInts(buffer, header);
+        for (int l = 0; l < nLayers; l++) {
+            ModelFile.putDoubles(buffer, weights[l]);
+            ModelFile.putDoubles(buffer, biases[l]);
         }
+        buffer.force();
     }
 
-    public void train(double[][] inputs, double[][] targets, int epochs, double learningRate) {
-        for (int epoch = 0; epoch < epochs; epoch++) {
-            for (int i = 0; i < inputs.length; i++) {
-                double[] output = forward(inputs[i]);
-                backward(inputs[i], targets[i], output, learningRate);
-            }
+    // Weights are bulk-copied out of the mapping into the flat matrices the layers multiply with
+    public static MLP load(Path path) throws IOException {
+        ByteBuffer buffer = ModelFile.open(path, ModelFile.MLP);
+        int headerLength = buffer.getInt();
+        buffer.getInt();
+        int[] header = ModelFile.getInts(buffer, headerLength);
+        int nLayers = header[0];
+        Loss loss = Loss.values()[header[1]];
+        int[] layerSizes = Arrays.copyOfRange(header, 2, 3 + nLayers);
+        Activation[] activations = new Activation[nLayers];
+        for (int l = 0; l < nLayers; l++) {
+            activations[l] = Activation.values()[header[3 + nLayers + l]];
         }
+        MLP mlp = new MLP(layerSizes, activations, loss);
+        for (int l = 0; l < nLayers; l++) {
+            ModelFile.doubleView(buffer, mlp.weights[l].length).get(mlp.weights[l]);
+            ModelFile.doubleView(buffer, mlp.biases[l].length).get(mlp.biases[l]);
+        }
+        return mlp;
     }
 
+    public int inputSize() {
+        return inputSize;
+    }
+
+    // Safe to call from many threads at once: uses the caller's own buffers and returns a fresh array
     public double[] predict(double[] input) {
-        return forward(input);
+        return forward(input).clone();
+    }
+
+    // Outputs for every row of inputs, computed a block of rows at a time; a CsrMatrix is
+    // multiplied in its sparse form
+    public double[][] predict(Dataset inputs) {
+        int n = inputs.nRows();
+        double[][] result = new double[n][];
+        Workspace ws = new Workspace(sizes, Math.max(1, Math.min(256, n)));
+        double[] output = ws.activations[weights.length];
+        for (int start = 0; start < n; start += ws.capacity) {
+            int rows = Math.min(ws.capacity, n - start);
+            ws.loadInputs(inputs, start, rows);
+            forwardBatch(ws, rows);
+            for (int r = 0; r < rows; r++) {
+                result[start + r] = Arrays.copyOfRange(output, r * outputSize, (r + 1) * outputSize);
+            }
+        }
+        return result;
     }
 
     public static void main(String[] args) {
@@ -157,5 +653,15 @@ public class MLP {
             double[] output = mlp.predict(input);
             System.out.println(Arrays.toString(output));
         }
+
+        // Same problem with tanh hidden units, cross-entropy and Adam
+        MLP deep = new MLP(new int[]{2, 8, 8, 1}, new Activation[]{Activation.TANH, Activation.TANH, Activation.SIGMOID}, Loss.CROSS_ENTROPY);
+        deep.setOptimizer(Optimizer.adam());
+        deep.train(inputs, targets, 500, 0.01, 4);
+
+        for (double[] input : inputs) {
+            double[] output = deep.predict(input);
+            System.out.println(Arrays.toString(output));
+        }
     }
 }
\ No newline at end of file
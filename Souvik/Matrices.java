@@ -0,0 +1,77 @@
+import java.util.Arrays;
+
+// Cache-blocked products of row-major matrices stored in flat arrays
+class Matrices {
+    private static final int BLOCK = 64;
+
+    private Matrices() {
+    }
+
+    // c = a * b, where a is m x k and b is k x n
+    static void multiply(double[] a, double[] b, double[] c, int m, int k, int n) {
+        Arrays.fill(c, 0, m * n, 0);
+        for (int i0 = 0; i0 < m; i0 += BLOCK) {
+            int iMax = Math.min(i0 + BLOCK, m);
+            for (int p0 = 0; p0 < k; p0 += BLOCK) {
+                int pMax = Math.min(p0 + BLOCK, k);
+                for (int j0 = 0; j0 < n; j0 += BLOCK) {
+                    int jMax = Math.min(j0 + BLOCK, n);
+                    for (int i = i0; i < iMax; i++) {
+                        int cRow = i * n;
+                        for (int p = p0; p < pMax; p++) {
+                            double aip = a[i * k + p];
+                            if (aip == 0) continue;
+                            int bRow = p * n;
+                            for (int j = j0; j < jMax; j++) {
+                                c[cRow + j] += aip * b[bRow + j];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // c = a^T * b, where a is k x m and b is k x n
+    static void multiplyTransposeA(double[] a, double[] b, double[] c, int m, int k, int n) {
+        Arrays.fill(c, 0, m * n, 0);
+        for (int p0 = 0; p0 < k; p0 += BLOCK) {
+            int pMax = Math.min(p0 + BLOCK, k);
+            for (int i0 = 0; i0 < m; i0 += BLOCK) {
+                int iMax = Math.min(i0 + BLOCK, m);
+                for (int p = p0; p < pMax; p++) {
+                    int bRow = p * n;
+                    for (int i = i0; i < iMax; i++) {
+                        double api = a[p * m + i];
+                        if (api == 0) continue;
+                        int cRow = i * n;
+                        for (int j = 0; j < n; j++) {
+                            c[cRow + j] += api * b[bRow + j];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // c = a * b^T, where a is m x k and b is n x k
+    static void multiplyTransposeB(double[] a, double[] b, double[] c, int m, int k, int n) {
+        for (int i0 = 0; i0 < m; i0 += BLOCK) {
+            int iMax = Math.min(i0 + BLOCK, m);
+            for (int j0 = 0; j0 < n; j0 += BLOCK) {
+                int jMax = Math.min(j0 + BLOCK, n);
+                for (int i = i0; i < iMax; i++) {
+                    int aRow = i * k;
+                    for (int j = j0; j < jMax; j++) {
+                        int bRow = j * k;
+                        double sum = 0;
+                        for (int p = 0; p < k; p++) {
+                            sum += a[aRow + p] * b[bRow + p];
+                        }
+                        c[i * n + j] = sum;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+// Applies descent directions (negative gradients) to parameter arrays. Optimizers keep
+// per-parameter state, so each MLP needs its own instance.
+public interface Optimizer {
+    void step(double[][] params, double[][] directions, double learningRate);
+
+    static Optimizer sgd() {
+        return new Sgd();
+    }
+
+    static Optimizer momentum(double beta) {
+        return new Momentum(beta);
+    }
+
+    static Optimizer adam(double beta1, double beta2, double epsilon) {
+        return new Adam(beta1, beta2, epsilon);
+    }
+
+    static Optimizer adam() {
+        return new Adam(0.9, 0.999, 1e-8);
+    }
+
+    final class Sgd implements Optimizer {
+        @Override
+        public void step(double[][] params, double[][] directions, double learningRate) {
+            for (int p = 0; p < params.length; p++) {
+                double[] param = params[p];
+                double[] direction = directions[p];
+                for (int i = 0; i < param.length; i++) {
+                    param[i] += learningRate * direction[i];
+                }
+            }
+        }
+    }
+
+    // v = beta v + g; w += rate v
+    final class Momentum implements Optimizer {
+        private final double beta;
+        private double[][] velocity;
+
+        Momentum(double beta) {
+            this.beta = beta;
+        }
+
+        @Override
+        public void step(double[][] params, double[][] directions, double learningRate) {
+            if (velocity == null) velocity = zerosLike(params);
+            for (int p = 0; p < params.length; p++) {
+                double[] param = params[p];
+                double[] direction = directions[p];
+                double[] v = velocity[p];
+                for (int i = 0; i < param.length; i++) {
+                    v[i] = beta * v[i] + direction[i];
+                    param[i] += learningRate * v[i];
+                }
+            }
+        }
+    }
+
+    // Bias-corrected first and second moment estimates, as in Kingma and Ba
+    final class Adam implements Optimizer {
+        private final double beta1;
+        private final double beta2;
+        private final double epsilon;
+        private double[][] m;
+        private double[][] v;
+        private int t;
+
+        Adam(double beta1, double beta2, double epsilon) {
+            this.beta1 = beta1;
+            this.beta2 = beta2;
+            this.epsilon = epsilon;
+        }
+
+        @Override
+        public void step(double[][] params, double[][] directions, double learningRate) {
+            if (m == null) {
+                m = zerosLike(params);
+                v = zerosLike(params);
+            }
+            t++;
+            double rate = learningRate * Math.sqrt(1 - Math.pow(beta2, t)) / (1 - Math.pow(beta1, t));
+            for (int p = 0; p < params.length; p++) {
+                double[] param = params[p];
+                double[] direction = directions[p];
+                double[] mp = m[p];
+                double[] vp = v[p];
+                for (int i = 0; i < param.length; i++) {
+                    double g = direction[i];
+                    mp[i] = beta1 * mp[i] + (1 - beta1) * g;
+                    vp[i] = beta2 * vp[i] + (1 - beta2) * g * g;
+                    param[i] += rate * mp[i] / (Math.sqrt(vp[i]) + epsilon);
+                }
+            }
+        }
+    }
+
+    private static double[][] zerosLike(double[][] params) {
+        double[][] zeros = new double[params.length][];
+        for (int p = 0; p < params.length; p++) {
+            zeros[p] = new double[params[p].length];
+        }
+        return zeros;
+    }
+}
@@ -0,0 +1,63 @@
+// Output error of the float32 and int8 exports of an MLP against the double model on a sample of rows
+public class QuantizationReport {
+    public final double float32MaxError;
+    public final double float32MeanError;
+    public final double float32ArgmaxAgreement;
+    public final double int8MaxError;
+    public final double int8MeanError;
+    public final double int8ArgmaxAgreement;
+
+    private QuantizationReport(double[] float32, double[] int8) {
+        this.float32MaxError = float32[0];
+        this.float32MeanError = float32[1];
+        this.float32ArgmaxAgreement = float32[2];
+        this.int8MaxError = int8[0];
+        this.int8MeanError = int8[1];
+        this.int8ArgmaxAgreement = int8[2];
+    }
+
+    public static QuantizationReport measure(MLP model, double[][] inputs) {
+        FloatMLP float32 = model.toFloat32();
+        QuantizedMLP int8 = model.toInt8();
+        double[] float32Stats = new double[3];
+        double[] int8Stats = new double[3];
+        int nOutputs = 0;
+        for (double[] input : inputs) {
+            double[] expected = model.predict(input);
+            accumulate(float32Stats, expected, float32.predict(input));
+            accumulate(int8Stats, expected, int8.predict(input));
+            nOutputs += expected.length;
+        }
+        for (double[] stats : new double[][]{float32Stats, int8Stats}) {
+            stats[1] /= nOutputs;
+            stats[2] /= inputs.length;
+        }
+        return new QuantizationReport(float32Stats, int8Stats);
+    }
+
+    // stats holds {max abs error, sum of abs errors, rows with the same argmax}
+    private static void accumulate(double[] stats, double[] expected, double[] actual) {
+        for (int k = 0; k < expected.length; k++) {
+            double error = Math.abs(expected[k] - actual[k]);
+            stats[0] = Math.max(stats[0], error);
+            stats[1] += error;
+        }
+        if (argmax(expected) == argmax(actual)) stats[2]++;
+    }
+
+    private static int argmax(double[] values) {
+        int best = 0;
+        for (int k = 1; k < values.length; k++) {
+            if (values[k] > values[best]) best = k;
+        }
+        return best;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("float32: max error %.3g, mean error %.3g, argmax agreement %.2f%%%n"
+                        + "int8:    max error %.3g, mean error %.3g, argmax agreement %.2f%%",
+                float32MaxError, float32MeanError, 100 * float32ArgmaxAgreement,
+                int8MaxError, int8MeanError, 100 * int8ArgmaxAgreement);
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.Arrays;
+
+// Int8 inference copy of a trained MLP. Each layer's weights are quantized once with their
+// own scale and zero point; each layer's input row is quantized the same way on the fly,
+// products accumulate in int32, and the sum is rescaled to float before bias and activation.
+public class QuantizedMLP {
+    private final int[] sizes;
+    private final Activation[] activations;
+    private final byte[][] weights;
+    private final float[] weightScales;
+    private final int[] weightZeroPoints;
+    private final float[][] biases;
+    private final ThreadLocal<Buffers> buffers;
+
+    private static class Buffers {
+        final float[][] layers;
+        final byte[] quantized;
+        final int[] accumulators;
+
+        Buffers(int[] sizes) {
+            int widest = 0;
+            layers = new float[sizes.length][];
+            for (int l = 0; l < sizes.length; l++) {
+                layers[l] = new float[sizes[l]];
+                widest = Math.max(widest, sizes[l]);
+            }
+            quantized = new byte[widest];
+            accumulators = new int[widest];
+        }
+    }
+
+    QuantizedMLP(int[] sizes, Activation[] activations, double[][] weights, double[][] biases) {
+        this.sizes = sizes.clone();
+        this.activations = activations.clone();
+        int nLayers = weights.length;
+        this.weights = new byte[nLayers][];
+        this.weightScales = new float[nLayers];
+        this.weightZeroPoints = new int[nLayers];
+        this.biases = new float[nLayers][];
+        for (int l = 0; l < nLayers; l++) {
+            double min = 0;
+            double max = 0;
+            for (double w : weights[l]) {
+                min = Math.min(min, w);
+                max = Math.max(max, w);
+            }
+            float scale = scale(min, max);
+            int zeroPoint = zeroPoint(min, scale);
+            this.weightScales[l] = scale;
+            this.weightZeroPoints[l] = zeroPoint;
+            this.weights[l] = new byte[weights[l].length];
+            for (int i = 0; i < weights[l].length; i++) {
+                this.weights[l][i] = quantize(weights[l][i], scale, zeroPoint);
+            }
+            this.biases[l] = new float[biases[l].length];
+            for (int j = 0; j < biases[l].length; j++) {
+                this.biases[l][j] = (float) biases[l][j];
+            }
+        }
+        this.buffers = ThreadLocal.withInitial(() -> new Buffers(this.sizes));
+    }
+
+    // Maps [min, max], which always contains 0, onto the 256 int8 levels
+    private static float scale(double min, double max) {
+        return max > min ? (float) ((max - min) / 255) : 1f;
+    }
+
+    private static int zeroPoint(double min, float scale) {
+        return (int) Math.round(-128 - min / scale);
+    }
+
+    private static byte quantize(double value, float scale, int zeroPoint) {
+        long q = Math.round(value / scale) + zeroPoint;
+        return (byte) Math.max(-128, Math.min(127, q));
+    }
+
+    // Safe to call from many threads at once
+    public double[] predict(double[] input) {
+        Buffers b = buffers.get();
+        for (int i = 0; i < sizes[0]; i++) {
+            b.layers[0][i] = (float) input[i];
+        }
+        for (int l = 0; l < weights.length; l++) {
+            float[] in = b.layers[l];
+            float[] out = b.layers[l + 1];
+            int nIn = sizes[l];
+            int nOut = sizes[l + 1];
+
+            float min = 0;
+            float max = 0;
+            for (int i = 0; i < nIn; i++) {
+                min = Math.min(min, in[i]);
+                max = Math.max(max, in[i]);
+            }
+            float inScale = scale(min, max);
+            int inZero = zeroPoint(min, inScale);
+            for (int i = 0; i < nIn; i++) {
+                b.quantized[i] = quantize(in[i], inScale, inZero);
+            }
+
+            byte[] w = weights[l];
+            int wZero = weightZeroPoints[l];
+            int[] acc = b.accumulators;
+            Arrays.fill(acc, 0, nOut, 0);
+            for (int i = 0; i < nIn; i++) {
+                int a = b.quantized[i] - inZero;
+                if (a == 0) continue;
+                int row = i * nOut;
+                for (int j = 0; j < nOut; j++) {
+                    acc[j] += a * (w[row + j] - wZero);
+                }
+            }
+
+            float rescale = inScale * weightScales[l];
+            float[] bias = biases[l];
+            for (int j = 0; j < nOut; j++) {
+                out[j] = acc[j] * rescale + bias[j];
+            }
+            activations[l].apply(out, 0, nOut);
+        }
+
+        float[] output = b.layers[weights.length];
+        double[] result = new double[output.length];
+        for (int k = 0; k < output.length; k++) {
+            result[k] = output[k];
+        }
+        return result;
+    }
+}
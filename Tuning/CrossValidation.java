@@ -0,0 +1,328 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// k-fold cross-validation over a list of configurations, running folds and configurations
+// concurrently. Folds are passed around as row index arrays, never as copies of the data:
+// an evaluator trains on a Dataset.view, a shared BinnedData or a matrix plus row indices,
+// so the preprocessed data exists once however many fits run. At most parallelism fits are
+// in flight at a time, which bounds the memory models and their workspaces take.
+public class CrossValidation {
+    // Fits one configuration on the train rows and returns its score on the test rows;
+    // higher is better
+    public interface Evaluator<C> {
+        double score(C config, int[] train, int[] test);
+    }
+
+    // Fits the configurations in order on one fold and returns a score for each, so a model
+    // can be carried from one to the next: a forest grown tree by tree, an SVM warm-started
+    // along a path of C values
+    public interface PathEvaluator<C> {
+        double[] scores(List<C> configs, int[] train, int[] test);
+    }
+
+    public static class Result<C> {
+        public final C config;
+        public final double[] foldScores;
+
+        Result(C config, double[] foldScores) {
+            this.config = config;
+            this.foldScores = foldScores;
+        }
+
+        public double mean() {
+            return Arrays.stream(foldScores).average().orElse(Double.NaN);
+        }
+
+        public double std() {
+            double mean = mean();
+            double sum = 0;
+            for (double score : foldScores) {
+                sum += (score - mean) * (score - mean);
+            }
+            return Math.sqrt(sum / foldScores.length);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.4f +/- %.4f", config, mean(), std());
+        }
+    }
+
+    private final int folds;
+    private Long seed;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int[] strata;
+
+    public CrossValidation(int folds) {
+        if (folds < 2) {
+            throw new IllegalArgumentException("Need at least 2 folds, got " + folds);
+        }
+        this.folds = folds;
+    }
+
+    // Fixes the shuffle that assigns rows to folds
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    // Fits run at once; 1 runs them sequentially on the calling thread
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    // Spreads each label's rows evenly over the folds
+    public void setStratify(int[] labels) {
+        this.strata = labels;
+    }
+
+    // Test rows of each fold, ascending; together they partition [0, nRows)
+    public int[][] testFolds(int nRows) {
+        if (strata != null && strata.length != nRows) {
+            throw new IllegalArgumentException("Have " + strata.length + " stratification labels for " + nRows + " rows");
+        }
+        SplittableRandom random = seed == null ? new SplittableRandom() : new SplittableRandom(seed);
+        int[] order = new int[nRows];
+        for (int i = 0; i < nRows; i++) {
+            order[i] = i;
+        }
+        for (int i = nRows - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        if (strata != null) {
+            // Stable by label, so dealing rows out in turn keeps each class's share per fold
+            order = Arrays.stream(order).boxed().sorted(Comparator.comparingInt(r -> strata[r]))
+                    .mapToInt(Integer::intValue).toArray();
+        }
+        int[] fold = new int[nRows];
+        int[] sizes = new int[folds];
+        for (int p = 0; p < nRows; p++) {
+            fold[order[p]] = p % folds;
+            sizes[p % folds]++;
+        }
+        int[][] test = new int[folds][];
+        for (int k = 0; k < folds; k++) {
+            test[k] = new int[sizes[k]];
+            sizes[k] = 0;
+        }
+        for (int r = 0; r < nRows; r++) {
+            test[fold[r]][sizes[fold[r]]++] = r;
+        }
+        return test;
+    }
+
+    // The rows of [0, nRows) not in test, ascending; test must be ascending
+    public static int[] complement(int nRows, int[] test) {
+        int[] train = new int[nRows - test.length];
+        int k = 0;
+        int t = 0;
+        for (int r = 0; r < nRows; r++) {
+            if (t < test.length && test[t] == r) {
+                t++;
+            } else {
+                train[k++] = r;
+            }
+        }
+        return train;
+    }
+
+    // Scores every configuration on every fold, each (configuration, fold) pair a separate task
+    public <C> List<Result<C>> evaluate(int nRows, List<C> configs, Evaluator<C> evaluator) {
+        int[][] test = testFolds(nRows);
+        int[][] train = new int[folds][];
+        for (int k = 0; k < folds; k++) {
+            train[k] = complement(nRows, test[k]);
+        }
+        double[][] scores = new double[configs.size()][folds];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int c = 0; c < configs.size(); c++) {
+            for (int k = 0; k < folds; k++) {
+                int config = c;
+                int fold = k;
+                tasks.add(() -> {
+                    scores[config][fold] = evaluator.score(configs.get(config), train[fold], test[fold]);
+                    return null;
+                });
+            }
+        }
+        run(tasks);
+        return results(configs, scores);
+    }
+
+    // Runs the configurations as one path per fold, the folds in parallel
+    public <C> List<Result<C>> evaluatePath(int nRows, List<C> configs, PathEvaluator<C> evaluator) {
+        int[][] test = testFolds(nRows);
+        double[][] scores = new double[configs.size()][folds];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int k = 0; k < folds; k++) {
+            int fold = k;
+            tasks.add(() -> {
+                double[] path = evaluator.scores(configs, complement(nRows, test[fold]), test[fold]);
+                if (path.length != configs.size()) {
+                    throw new IllegalStateException("Got " + path.length + " scores for " + configs.size() + " configurations");
+                }
+                for (int c = 0; c < path.length; c++) {
+                    scores[c][fold] = path[c];
+                }
+                return null;
+            });
+        }
+        run(tasks);
+        return results(configs, scores);
+    }
+
+    // The result with the highest mean score
+    public static <C> Result<C> best(List<Result<C>> results) {
+        Result<C> best = null;
+        for (Result<C> result : results) {
+            if (best == null || result.mean() > best.mean()) best = result;
+        }
+        return best;
+    }
+
+    private static <C> List<Result<C>> results(List<C> configs, double[][] scores) {
+        List<Result<C>> results = new ArrayList<>();
+        for (int c = 0; c < configs.size(); c++) {
+            results.add(new Result<>(configs.get(c), scores[c]));
+        }
+        return results;
+    }
+
+    private void run(List<Callable<Void>> tasks) {
+        if (parallelism <= 1) {
+            for (Callable<Void> task : tasks) {
+                Tasks.call(task);
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()));
+        try {
+            Tasks.runAll(pool, tasks);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static double accuracy(int[] predicted, int[] y, int[] rows) {
+        int correct = 0;
+        for (int i = 0; i < rows.length; i++) {
+            if (predicted[i] == y[rows[i]]) correct++;
+        }
+        return (double) correct / rows.length;
+    }
+
+    private static double[][] rowsOf(double[][] X, int[] rows) {
+        double[][] subset = new double[rows.length][];
+        for (int i = 0; i < rows.length; i++) {
+            subset[i] = X[rows[i]];
+        }
+        return subset;
+    }
+
+    // Tunes a forest, an SVM and an MLP on one synthetic dataset
+    public static void main(String[] args) {
+        Random random = new Random(11);
+        int n = 2000;
+        double[][] X = new double[n][8];
+        int[] y = new int[n];
+        double[] signs = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (int f = 0; f < 8; f++) {
+                X[i][f] = random.nextGaussian();
+            }
+            y[i] = X[i][0] * X[i][1] + 0.5 * X[i][2] + 0.3 * random.nextGaussian() > 0 ? 1 : 0;
+            signs[i] = y[i] == 1 ? 1 : -1;
+        }
+        CrossValidation cv = new CrossValidation(5);
+        cv.setSeed(1);
+        cv.setStratify(y);
+
+        // Forests: one binning shared by every fold; the tree count is a warm-started path
+        BinnedData binned = new BinnedData(X, 64);
+        SearchSpace depths = new SearchSpace();
+        depths.addValues("maxDepth", 4, 8, 12);
+        for (Map<String, Double> depth : depths.grid()) {
+            List<Map<String, Double>> path = new ArrayList<>();
+            for (int trees : new int[]{25, 50, 100}) {
+                Map<String, Double> config = new LinkedHashMap<>(depth);
+                config.put("nTrees", (double) trees);
+                path.add(config);
+            }
+            List<Result<Map<String, Double>>> results = cv.evaluatePath(n, path, (configs, train, test) -> {
+                RandomForest forest = new RandomForest(0, depth.get("maxDepth").intValue(), 2, null, 64);
+                forest.setSeed(3);
+                forest.setParallelism(1);
+                forest.setWarmStart(true);
+                double[] scores = new double[configs.size()];
+                for (int c = 0; c < configs.size(); c++) {
+                    forest.setNTrees(configs.get(c).get("nTrees").intValue());
+                    forest.fit(binned, y, train);
+                    scores[c] = accuracy(forest.predict(rowsOf(X, test)), y, test);
+                }
+                return scores;
+            });
+            results.forEach(System.out::println);
+        }
+
+        // SVMs on views of one dataset, warm-started along increasing C
+        Dataset data = Dataset.of(X);
+        List<Double> cs = List.of(0.1, 0.3, 1.0, 3.0, 10.0);
+        List<Result<Double>> svmResults = cv.evaluatePath(n, cs, (configs, train, test) -> {
+            double[] trainSigns = new double[train.length];
+            for (int i = 0; i < train.length; i++) {
+                trainSigns[i] = signs[train[i]];
+            }
+            SVM svm = new SVM(configs.get(0), 1e-3, 100, Kernel.rbf(0.125));
+            svm.setParallelism(1);
+            svm.setWarmStart(true);
+            double[] scores = new double[configs.size()];
+            for (int c = 0; c < configs.size(); c++) {
+                svm.setC(configs.get(c));
+                svm.fit(data.view(train), trainSigns);
+                double[] predicted = svm.predict(data.view(test));
+                int correct = 0;
+                for (int i = 0; i < test.length; i++) {
+                    if (predicted[i] == signs[test[i]]) correct++;
+                }
+                scores[c] = (double) correct / test.length;
+            }
+            return scores;
+        });
+        svmResults.forEach(result -> System.out.println("C=" + result));
+
+        // MLPs: a random search, every (configuration, fold) pair its own task
+        double[][] targets = new double[n][2];
+        for (int i = 0; i < n; i++) {
+            targets[i][y[i]] = 1;
+        }
+        SearchSpace space = new SearchSpace();
+        space.addValues("hiddenSize", 8, 16, 32);
+        space.addLogUniform("learningRate", 0.01, 0.3);
+        space.addValues("epochs", 10, 30);
+        List<Result<Map<String, Double>>> mlpResults = cv.evaluate(n, space.sample(6, 5), (config, train, test) -> {
+            MLP mlp = new MLP(new int[]{8, config.get("hiddenSize").intValue(), 2},
+                    new Activation[]{Activation.RELU, Activation.SOFTMAX}, Loss.CROSS_ENTROPY);
+            mlp.setParallelism(1);
+            mlp.train(data.view(train), rowsOf(targets, train), config.get("epochs").intValue(), config.get("learningRate"), 32);
+            double[][] outputs = mlp.predict(data.view(test));
+            int correct = 0;
+            for (int i = 0; i < test.length; i++) {
+                if ((outputs[i][1] > outputs[i][0] ? 1 : 0) == y[test[i]]) correct++;
+            }
+            return (double) correct / test.length;
+        });
+        mlpResults.forEach(System.out::println);
+        System.out.println("Best MLP " + best(mlpResults));
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+// Named hyperparameters and the values each may take, expanded into configurations for
+// CrossValidation: grid() crosses every listed value, sample() draws random configurations
+// and may also use continuous ranges. Integer parameters are stored as doubles; read them
+// back with intValue().
+public class SearchSpace {
+    private static final int VALUES = 0;
+    private static final int UNIFORM = 1;
+    private static final int LOG_UNIFORM = 2;
+
+    private final Map<String, Integer> kinds = new LinkedHashMap<>();
+    private final Map<String, double[]> values = new LinkedHashMap<>();
+
+    public void addValues(String name, double... choices) {
+        if (choices.length == 0) {
+            throw new IllegalArgumentException("No values for " + name);
+        }
+        put(name, VALUES, choices.clone());
+    }
+
+    public void addUniform(String name, double low, double high) {
+        if (!(low < high)) {
+            throw new IllegalArgumentException("Need low < high for " + name);
+        }
+        put(name, UNIFORM, new double[]{low, high});
+    }
+
+    // Uniform in log space, for scale parameters such as C, gamma or a learning rate
+    public void addLogUniform(String name, double low, double high) {
+        if (!(low > 0 && low < high)) {
+            throw new IllegalArgumentException("Need 0 < low < high for " + name);
+        }
+        put(name, LOG_UNIFORM, new double[]{Math.log(low), Math.log(high)});
+    }
+
+    private void put(String name, int kind, double[] spec) {
+        if (kinds.containsKey(name)) {
+            throw new IllegalArgumentException("Parameter already added: " + name);
+        }
+        kinds.put(name, kind);
+        values.put(name, spec);
+    }
+
+    // Every combination of the listed values, the last parameter varying fastest
+    public List<Map<String, Double>> grid() {
+        List<Map<String, Double>> configs = new ArrayList<>();
+        configs.add(new LinkedHashMap<>());
+        for (Map.Entry<String, Integer> entry : kinds.entrySet()) {
+            if (entry.getValue() != VALUES) {
+                throw new IllegalStateException("A grid needs listed values, not a range: " + entry.getKey());
+            }
+            List<Map<String, Double>> expanded = new ArrayList<>();
+            for (Map<String, Double> config : configs) {
+                for (double value : values.get(entry.getKey())) {
+                    Map<String, Double> next = new LinkedHashMap<>(config);
+                    next.put(entry.getKey(), value);
+                    expanded.add(next);
+                }
+            }
+            configs = expanded;
+        }
+        return configs;
+    }
+
+    // n configurations, each parameter drawn independently
+    public List<Map<String, Double>> sample(int n, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Map<String, Double>> configs = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Map<String, Double> config = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> entry : kinds.entrySet()) {
+                double[] spec = values.get(entry.getKey());
+                double value;
+                switch (entry.getValue()) {
+                    case VALUES: value = spec[random.nextInt(spec.length)]; break;
+                    case UNIFORM: value = spec[0] + random.nextDouble() * (spec[1] - spec[0]); break;
+                    default: value = Math.exp(spec[0] + random.nextDouble() * (spec[1] - spec[0])); break;
+                }
+                config.put(entry.getKey(), value);
+            }
+            configs.add(config);
+        }
+        return configs;
+    }
+}